@@ -0,0 +1,227 @@
+import edu.princeton.cs.algs4.Point2D;
+import edu.princeton.cs.algs4.RectHV;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Immutable 2d-tree over a fixed set of points whose leaves are buckets of up to bucketSize points.
+ *
+ * The points are stored in two parallel double[] arrays and permuted so that every range [lo, hi) of positions
+ * with more than bucketSize points is an inner node holding the median point at mid = (lo + hi) / 2: the points
+ * at positions [lo, mid) have coordinates not greater than it and those at (mid, hi) not smaller, on x at even
+ * depths and on y at odd depths. Smaller ranges are leaves. There are no per-node arrays either, since a node's
+ * range and split follow from its parent's.
+ *
+ * With buckets of B points the tree is about log2(B) levels shallower than a tree with one point per node, and a
+ * leaf is searched by a branch-light loop over consecutive array entries instead of by following links.
+ */
+public class BucketKdTree {
+    public static final int DEFAULT_BUCKET_SIZE = 32;
+
+    private final double[] xs; // x coordinates, in tree order
+    private final double[] ys; // y coordinates, in tree order
+    private final int bucketSize;
+
+    // builds the tree from points with leaves of up to DEFAULT_BUCKET_SIZE points
+    public BucketKdTree(Point2D[] points) {
+        this(points, DEFAULT_BUCKET_SIZE);
+    }
+
+    /**
+     * Builds the tree from points, ignoring duplicates, with leaves of up to bucketSize points.
+     * Throws IllegalArgumentException if points or any of its entries is null, or if bucketSize < 1.
+     */
+    public BucketKdTree(Point2D[] points, int bucketSize) {
+        if (points == null) throw new IllegalArgumentException("argument to constructor is null");
+        if (bucketSize < 1) throw new IllegalArgumentException("bucket size must be positive: " + bucketSize);
+        Point2D[] sorted = points.clone();
+        for (Point2D p : sorted) {
+            if (p == null) throw new IllegalArgumentException("point is null");
+        }
+        Arrays.sort(sorted);
+        int size = 0;
+        double[] xs = new double[sorted.length];
+        double[] ys = new double[sorted.length];
+        for (int i = 0; i < sorted.length; i++) {
+            if (i > 0 && sorted[i].compareTo(sorted[i - 1]) == 0) continue;
+            xs[size] = sorted[i].x();
+            ys[size] = sorted[i].y();
+            size++;
+        }
+        this.xs = Arrays.copyOf(xs, size);
+        this.ys = Arrays.copyOf(ys, size);
+        this.bucketSize = bucketSize;
+        this.build(0, size, true);
+    }
+
+    // arranges positions [lo, hi) as a subtree splitting on x if vertical
+    private void build(int lo, int hi, boolean vertical) {
+        if (hi - lo <= this.bucketSize) return;
+        int mid = (lo + hi) >>> 1;
+        FlatKdTree.select(vertical ? this.xs : this.ys, vertical ? this.ys : this.xs, lo, hi - 1, mid);
+        this.build(lo, mid, !vertical);
+        this.build(mid + 1, hi, !vertical);
+    }
+
+    // is the set empty?
+    public boolean isEmpty() {
+        return this.xs.length == 0;
+    }
+
+    // number of points in the set
+    public int size() {
+        return this.xs.length;
+    }
+
+    // maximum number of points in a leaf
+    public int bucketSize() {
+        return this.bucketSize;
+    }
+
+    // number of levels of inner nodes above the deepest leaf
+    public int height() {
+        int height = 0;
+        for (int n = this.xs.length; n > this.bucketSize; n = n / 2) height++;
+        return height;
+    }
+
+    // does the set contain point p?
+    public boolean contains(Point2D p) {
+        if (p == null) throw new IllegalArgumentException("argument to contains() is null");
+        return this.contains(0, this.xs.length, true, p.x(), p.y());
+    }
+
+    private boolean contains(int lo, int hi, boolean vertical, double x, double y) {
+        if (hi - lo <= this.bucketSize) {
+            for (int i = lo; i < hi; i++) {
+                if (this.xs[i] == x && this.ys[i] == y) return true;
+            }
+            return false;
+        }
+        int mid = (lo + hi) >>> 1;
+        if (this.xs[mid] == x && this.ys[mid] == y) return true;
+        double diff = vertical ? x - this.xs[mid] : y - this.ys[mid];
+        // equal coordinates may be on either side
+        return diff <= 0 && this.contains(lo, mid, !vertical, x, y)
+                || diff >= 0 && this.contains(mid + 1, hi, !vertical, x, y);
+    }
+
+    // all points that are inside the rectangle (or on the boundary)
+    public Iterable<Point2D> range(RectHV rect) {
+        if (rect == null) throw new IllegalArgumentException("argument to range() is null");
+        ArrayList<Point2D> range = new ArrayList<>();
+        this.range(0, this.xs.length, true, rect.xmin(), rect.ymin(), rect.xmax(), rect.ymax(), range);
+        return range;
+    }
+
+    private void range(int lo, int hi, boolean vertical, double xmin, double ymin, double xmax, double ymax,
+                       ArrayList<Point2D> range) {
+        if (hi - lo <= this.bucketSize) {
+            for (int i = lo; i < hi; i++) {
+                double x = this.xs[i];
+                double y = this.ys[i];
+                if (xmin <= x && x <= xmax && ymin <= y && y <= ymax) range.add(new Point2D(x, y));
+            }
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        double x = this.xs[mid];
+        double y = this.ys[mid];
+        if (xmin <= x && x <= xmax && ymin <= y && y <= ymax) range.add(new Point2D(x, y));
+        double split = vertical ? x : y;
+        double min = vertical ? xmin : ymin;
+        double max = vertical ? xmax : ymax;
+        if (min <= split) this.range(lo, mid, !vertical, xmin, ymin, xmax, ymax, range);
+        if (max >= split) this.range(mid + 1, hi, !vertical, xmin, ymin, xmax, ymax, range);
+    }
+
+    /**
+     * A nearest neighbor in the set to point p; null if the set is empty.
+     *
+     * As in FlatKdTree, the side of each split that holds p is searched first, the other side only if its
+     * rectangle, whose squared distance to p is kept incrementally, is closer than the best point so far.
+     */
+    public Point2D nearest(Point2D p) {
+        if (p == null) throw new IllegalArgumentException("argument to nearest() is null");
+        if (this.isEmpty()) return null;
+        Nearest best = new Nearest();
+        this.nearest(0, this.xs.length, true, p.x(), p.y(), 0.0, 0.0, 0.0, best);
+        return new Point2D(this.xs[best.index], this.ys[best.index]);
+    }
+
+    // best position and squared distance of a nearest neighbor search
+    private static class Nearest {
+        private int index = -1;
+        private double distance = Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Searches the subtree [lo, hi), whose rectangle is at squared distance rectDistance from (x, y),
+     * with dx and dy the offsets from (x, y) to that rectangle along each axis.
+     */
+    private void nearest(int lo, int hi, boolean vertical, double x, double y,
+                         double rectDistance, double dx, double dy, Nearest best) {
+        if (rectDistance >= best.distance) return;
+        if (hi - lo <= this.bucketSize) {
+            double bestDistance = best.distance;
+            int bestIndex = best.index;
+            for (int i = lo; i < hi; i++) {
+                double px = this.xs[i] - x;
+                double py = this.ys[i] - y;
+                double distance = px * px + py * py;
+                if (distance < bestDistance) {
+                    bestDistance = distance;
+                    bestIndex = i;
+                }
+            }
+            best.distance = bestDistance;
+            best.index = bestIndex;
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        double px = this.xs[mid] - x;
+        double py = this.ys[mid] - y;
+        double distance = px * px + py * py;
+        if (distance < best.distance) {
+            best.distance = distance;
+            best.index = mid;
+        }
+        if (vertical) {
+            // the far side is at offset px along x
+            if (px <= 0) {
+                this.nearest(mid + 1, hi, false, x, y, rectDistance, dx, dy, best);
+                this.nearest(lo, mid, false, x, y, rectDistance - dx * dx + px * px, px, dy, best);
+            } else {
+                this.nearest(lo, mid, false, x, y, rectDistance, dx, dy, best);
+                this.nearest(mid + 1, hi, false, x, y, rectDistance - dx * dx + px * px, px, dy, best);
+            }
+        } else {
+            if (py <= 0) {
+                this.nearest(mid + 1, hi, true, x, y, rectDistance, dx, dy, best);
+                this.nearest(lo, mid, true, x, y, rectDistance - dy * dy + py * py, dx, py, best);
+            } else {
+                this.nearest(lo, mid, true, x, y, rectDistance, dx, dy, best);
+                this.nearest(mid + 1, hi, true, x, y, rectDistance - dy * dy + py * py, dx, py, best);
+            }
+        }
+    }
+
+    // unit testing of the methods (optional)
+    public static void main(String[] args) {
+        Point2D[] points = {
+                new Point2D(0.7, 0.2), new Point2D(0.5, 0.4), new Point2D(0.2, 0.3),
+                new Point2D(0.4, 0.7), new Point2D(0.9, 0.6), new Point2D(0.5, 0.4)
+        };
+        for (int bucketSize = 1; bucketSize <= 4; bucketSize++) {
+            BucketKdTree tree = new BucketKdTree(points, bucketSize);
+            assert tree.size() == 5;
+            assert tree.contains(new Point2D(0.4, 0.7));
+            assert !tree.contains(new Point2D(0.4, 0.2));
+            assert tree.nearest(new Point2D(0.8, 0.1)).equals(new Point2D(0.7, 0.2));
+            int count = 0;
+            for (Point2D p : tree.range(new RectHV(0.3, 0.3, 1.0, 1.0))) count++;
+            assert count == 3;
+        }
+    }
+}
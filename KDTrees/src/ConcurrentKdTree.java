@@ -0,0 +1,197 @@
+import edu.princeton.cs.algs4.Point2D;
+import edu.princeton.cs.algs4.RectHV;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.function.Consumer;
+
+/**
+ * Thread-safe 2d-tree with the KdTree API, where queries never block and never see a partial insert.
+ *
+ * A node's point, rectangle and axis are final and its child links go from null to a node exactly once, so the
+ * tree only ever grows by new leaves. insert() builds the leaf completely and then publishes it with a
+ * compare-and-set on the empty child link (or on the root); a failed CAS means another thread published a leaf
+ * there first, and the insert continues down from that leaf. The links are volatile, so a reader that sees a
+ * leaf also sees its fields, and it sees every point whose insert() returned before the query started.
+ *
+ * Queries are recursive and keep their state on the call stack, so any number of threads can run them alongside
+ * any number of inserts. size() counts completed inserts.
+ */
+public class ConcurrentKdTree {
+    private static final AtomicReferenceFieldUpdater<ConcurrentKdTree, Node> ROOT =
+            AtomicReferenceFieldUpdater.newUpdater(ConcurrentKdTree.class, Node.class, "root");
+    private static final AtomicReferenceFieldUpdater<Node, Node> LB =
+            AtomicReferenceFieldUpdater.newUpdater(Node.class, Node.class, "lb");
+    private static final AtomicReferenceFieldUpdater<Node, Node> RT =
+            AtomicReferenceFieldUpdater.newUpdater(Node.class, Node.class, "rt");
+
+    private volatile Node root = null;
+    private final AtomicInteger size = new AtomicInteger();
+
+    private static class Node {
+        private final Point2D p;      // the point
+        private final RectHV rect;    // the axis-aligned rectangle corresponding to this node
+        private volatile Node lb;     // the subtree with greater coordinates, set at most once
+        private volatile Node rt;     // the subtree with smaller or equal coordinates, set at most once
+        private final boolean isVertical;
+
+        Node(Point2D p, RectHV rect, boolean isVertical) {
+            this.p = p;
+            this.rect = rect;
+            this.isVertical = isVertical;
+        }
+    }
+
+    // construct an empty set of points
+    public ConcurrentKdTree() {
+    }
+
+    // is the set empty?
+    public boolean isEmpty() {
+        return this.root == null;
+    }
+
+    // number of points in the set
+    public int size() {
+        return this.size.get();
+    }
+
+    /**
+     * Adds the point to the set if it is not already in it, and returns whether it was added.
+     * Of several threads inserting equal points, exactly one succeeds.
+     * Throws IllegalArgumentException if p is null or, as in KdTree, outside the unit square.
+     */
+    public boolean insert(Point2D p) {
+        if (p == null) throw new IllegalArgumentException("argument to insert() is null");
+        KdTree.checkInUnitSquare(p);
+        Node node = this.root;
+        if (node == null) {
+            if (ROOT.compareAndSet(this, null, new Node(p, new RectHV(0.0, 0.0, 1.0, 1.0), true))) {
+                this.size.incrementAndGet();
+                return true;
+            }
+            node = this.root;
+        }
+        while (true) {
+            if (node.p.compareTo(p) == 0) return false;
+            // lb holds the greater coordinates and rt the smaller or equal ones, as in KdTree
+            boolean greater = compare(node, p) < 0;
+            Node child = greater ? node.lb : node.rt;
+            if (child == null) {
+                // if the CAS fails, this leaf is dropped: its rectangle only fits under node
+                Node leaf = new Node(p, subRect(node, greater), !node.isVertical);
+                if ((greater ? LB : RT).compareAndSet(node, null, leaf)) {
+                    this.size.incrementAndGet();
+                    return true;
+                }
+                child = greater ? node.lb : node.rt;
+            }
+            node = child;
+        }
+    }
+
+    // the rectangle of the lb (greater) or rt child of parent
+    private static RectHV subRect(Node parent, boolean greater) {
+        double xmin = parent.rect.xmin();
+        double ymin = parent.rect.ymin();
+        double xmax = parent.rect.xmax();
+        double ymax = parent.rect.ymax();
+        if (parent.isVertical) {
+            if (greater) xmin = parent.p.x();
+            else xmax = parent.p.x();
+        } else {
+            if (greater) ymin = parent.p.y();
+            else ymax = parent.p.y();
+        }
+        return new RectHV(xmin, ymin, xmax, ymax);
+    }
+
+    private static int compare(Node node, Point2D p) {
+        if (node.isVertical) return Double.compare(node.p.x(), p.x());
+        else return Double.compare(node.p.y(), p.y());
+    }
+
+    // does the set contain point p?
+    public boolean contains(Point2D p) {
+        if (p == null) throw new IllegalArgumentException("argument to contains() is null");
+        Node node = this.root;
+        while (node != null) {
+            if (node.p.compareTo(p) == 0) return true;
+            node = compare(node, p) < 0 ? node.lb : node.rt;
+        }
+        return false;
+    }
+
+    // all points that are inside the rectangle (or on the boundary)
+    public Iterable<Point2D> range(RectHV rect) {
+        ArrayList<Point2D> range = new ArrayList<>();
+        this.range(rect, range::add);
+        return range;
+    }
+
+    /**
+     * Passes every point inside rect (or on its boundary) to action.
+     * A subtree is searched only if its rectangle intersects rect.
+     */
+    public void range(RectHV rect, Consumer<Point2D> action) {
+        if (rect == null) throw new IllegalArgumentException("argument to range() is null");
+        if (action == null) throw new IllegalArgumentException("action is null");
+        range(this.root, rect, action);
+    }
+
+    private static void range(Node node, RectHV rect, Consumer<Point2D> action) {
+        if (node == null || !node.rect.intersects(rect)) return;
+        if (rect.contains(node.p)) action.accept(node.p);
+        range(node.lb, rect, action);
+        range(node.rt, rect, action);
+    }
+
+    // a nearest neighbor in the set to point p; null if the set is empty
+    public Point2D nearest(Point2D p) {
+        if (p == null) throw new IllegalArgumentException("argument to nearest() is null");
+        Node root = this.root;
+        if (root == null) return null;
+        return nearest(root, p, root, root.p.distanceSquaredTo(p)).p;
+    }
+
+    /**
+     * Searches the subtree at node, the side of each split that p is on first, and returns the nearest of its
+     * points and best, which is at squared distance bestDistance from p.
+     */
+    private static Node nearest(Node node, Point2D p, Node best, double bestDistance) {
+        if (node == null || node.rect.distanceSquaredTo(p) >= bestDistance) return best;
+        double distance = node.p.distanceSquaredTo(p);
+        if (distance < bestDistance) {
+            best = node;
+            bestDistance = distance;
+        }
+        Node near = node.rt;
+        Node far = node.lb;
+        if (compare(node, p) < 0) {
+            near = node.lb;
+            far = node.rt;
+        }
+        best = nearest(near, p, best, bestDistance);
+        return nearest(far, p, best, best.p.distanceSquaredTo(p));
+    }
+
+    // unit testing of the methods (optional)
+    public static void main(String[] args) {
+        ConcurrentKdTree tree = new ConcurrentKdTree();
+        assert tree.isEmpty() && tree.nearest(new Point2D(0.5, 0.5)) == null;
+        assert tree.insert(new Point2D(0.7, 0.2));
+        assert tree.insert(new Point2D(0.5, 0.4));
+        assert tree.insert(new Point2D(0.2, 0.3));
+        assert tree.insert(new Point2D(0.4, 0.7));
+        assert tree.insert(new Point2D(0.9, 0.6));
+        assert !tree.insert(new Point2D(0.5, 0.4));
+        assert tree.size() == 5;
+        assert tree.contains(new Point2D(0.4, 0.7));
+        assert !tree.contains(new Point2D(0.4, 0.2));
+        assert tree.nearest(new Point2D(0.8, 0.1)).equals(new Point2D(0.7, 0.2));
+        int count = 0;
+        for (Point2D p : tree.range(new RectHV(0.3, 0.3, 1.0, 1.0))) count++;
+        assert count == 3;
+    }
+}
@@ -0,0 +1,313 @@
+import edu.princeton.cs.algs4.Point2D;
+import edu.princeton.cs.algs4.RectHV;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Immutable 2d-tree over a fixed set of points, stored as two parallel double[] arrays.
+ *
+ * The tree is left-balanced (complete) and laid out in heap order: the children of node i are nodes 2i + 1 and
+ * 2i + 2, and nodes at even depths split on x while nodes at odd depths split on y. There are no Node, Point2D or
+ * RectHV objects per point (16 bytes per point instead of KdTree's ~150), and the rectangle of a node is derived
+ * from its ancestors' splits while traversing instead of being stored.
+ *
+ * Points equal to a split coordinate may be on either side, so both queries treat a split as belonging to both
+ * of its half-planes.
+ *
+ * Since the two arrays are the whole tree, a tree can be saved as a snapshot file (a 16 byte header, then the
+ * x and the y coordinates as little-endian doubles, in heap order) and opened again by mapping that file
+ * read-only: the queries then run on the mapped pages, so opening costs nothing per point, and processes that
+ * open the same snapshot share its pages in the page cache.
+ */
+public class FlatKdTree {
+    private static final int MAGIC = 0x464b4431; // "FKD1"
+    private static final int HEADER_BYTES = 16; // magic, size, 8 bytes reserved (keeps the doubles aligned)
+
+    private final DoubleBuffer xs; // x coordinates in heap order
+    private final DoubleBuffer ys; // y coordinates in heap order
+    private final int size;
+
+    /**
+     * Builds the tree from points, ignoring duplicates.
+     * Throws IllegalArgumentException if points or any of its entries is null.
+     */
+    public FlatKdTree(Point2D[] points) {
+        if (points == null) throw new IllegalArgumentException("argument to constructor is null");
+        Point2D[] sorted = points.clone();
+        for (Point2D p : sorted) {
+            if (p == null) throw new IllegalArgumentException("point is null");
+        }
+        Arrays.sort(sorted);
+        int size = 0;
+        double[] x = new double[sorted.length];
+        double[] y = new double[sorted.length];
+        for (int i = 0; i < sorted.length; i++) {
+            if (i > 0 && sorted[i].compareTo(sorted[i - 1]) == 0) continue;
+            x[size] = sorted[i].x();
+            y[size] = sorted[i].y();
+            size++;
+        }
+        double[] xs = new double[size];
+        double[] ys = new double[size];
+        build(x, y, 0, size, 0, xs, ys);
+        this.xs = DoubleBuffer.wrap(xs);
+        this.ys = DoubleBuffer.wrap(ys);
+        this.size = size;
+    }
+
+    private FlatKdTree(DoubleBuffer xs, DoubleBuffer ys, int size) {
+        this.xs = xs;
+        this.ys = ys;
+        this.size = size;
+    }
+
+    /**
+     * Opens the snapshot file written by save(), mapped read-only.
+     * Throws IllegalArgumentException if it is not a snapshot, and UncheckedIOException if it cannot be read.
+     */
+    public static FlatKdTree open(String filename) {
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining()) {
+                if (channel.read(header, header.position()) < 0) break;
+            }
+            if (header.hasRemaining() || header.getInt(0) != MAGIC)
+                throw new IllegalArgumentException(filename + " is not a FlatKdTree snapshot");
+            int size = header.getInt(4);
+            long bytes = 8L * size;
+            if (size < 0 || channel.size() != HEADER_BYTES + 2 * bytes)
+                throw new IllegalArgumentException(filename + " is truncated");
+            // the mappings stay valid after the channel is closed
+            DoubleBuffer xs = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES, bytes)
+                    .order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+            DoubleBuffer ys = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES + bytes, bytes)
+                    .order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+            return new FlatKdTree(xs, ys, size);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Writes the tree to a snapshot file that open() maps back, replacing the file if it exists.
+     * Throws UncheckedIOException if it cannot be written.
+     */
+    public void save(String filename) {
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(MAGIC).putInt(this.size).putLong(0);
+            for (DoubleBuffer coordinates : new DoubleBuffer[] { this.xs, this.ys }) {
+                for (int i = 0; i < this.size; i++) {
+                    if (buffer.remaining() < 8) write(channel, buffer);
+                    buffer.putDouble(coordinates.get(i));
+                }
+            }
+            write(channel, buffer);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // writes out the content of buffer and clears it
+    private static void write(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) channel.write(buffer);
+        buffer.clear();
+    }
+
+    // number of nodes in the left subtree of a left-balanced tree of size nodes
+    private static int leftSize(int size) {
+        if (size <= 1) return 0;
+        int height = 31 - Integer.numberOfLeadingZeros(size); // depth of the last level
+        int lastLevel = size - ((1 << height) - 1);             // nodes on the last level
+        int half = 1 << (height - 1);                           // last level nodes under the left child
+        return half - 1 + Math.min(lastLevel, half);
+    }
+
+    /**
+     * Places the points x[lo, hi), y[lo, hi) in the subtree rooted at node, splitting on x at even depths.
+     */
+    private static void build(double[] x, double[] y, int lo, int hi, int node, double[] xs, double[] ys) {
+        if (lo >= hi) return;
+        boolean vertical = (31 - Integer.numberOfLeadingZeros(node + 1)) % 2 == 0;
+        int median = lo + leftSize(hi - lo);
+        select(vertical ? x : y, vertical ? y : x, lo, hi - 1, median);
+        xs[node] = x[median];
+        ys[node] = y[median];
+        build(x, y, lo, median, 2 * node + 1, xs, ys);
+        build(x, y, median + 1, hi, 2 * node + 2, xs, ys);
+    }
+
+    /**
+     * Rearranges key[lo..hi] (and other along with it) so that key[k] is the value it would have if they were
+     * sorted, with no larger key before it and no smaller key after it.
+     */
+    static void select(double[] key, double[] other, int lo, int hi, int k) {
+        while (lo < hi) {
+            // median of three pivot, moved to lo
+            int mid = (lo + hi) >>> 1;
+            if (key[mid] < key[lo]) swap(key, other, mid, lo);
+            if (key[hi] < key[lo]) swap(key, other, hi, lo);
+            if (key[hi] < key[mid]) swap(key, other, hi, mid);
+            swap(key, other, lo, mid);
+            double pivot = key[lo];
+
+            int i = lo;
+            int j = hi + 1;
+            while (true) {
+                while (key[++i] < pivot) if (i == hi) break;
+                while (pivot < key[--j]) if (j == lo) break;
+                if (i >= j) break;
+                swap(key, other, i, j);
+            }
+            swap(key, other, lo, j);
+            if (j > k) hi = j - 1;
+            else if (j < k) lo = j + 1;
+            else return;
+        }
+    }
+
+    private static void swap(double[] key, double[] other, int i, int j) {
+        double t = key[i];
+        key[i] = key[j];
+        key[j] = t;
+        t = other[i];
+        other[i] = other[j];
+        other[j] = t;
+    }
+
+    // is the set empty?
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    // number of points in the set
+    public int size() {
+        return this.size;
+    }
+
+    // does the set contain point p?
+    public boolean contains(Point2D p) {
+        if (p == null) throw new IllegalArgumentException("argument to contains() is null");
+        return this.contains(0, p.x(), p.y());
+    }
+
+    private boolean contains(int node, double x, double y) {
+        if (node >= this.size) return false;
+        double nodeX = this.xs.get(node);
+        double nodeY = this.ys.get(node);
+        if (nodeX == x && nodeY == y) return true;
+        double diff = isVertical(node) ? x - nodeX : y - nodeY;
+        // equal coordinates may be on either side
+        return diff <= 0 && this.contains(2 * node + 1, x, y) || diff >= 0 && this.contains(2 * node + 2, x, y);
+    }
+
+    private static boolean isVertical(int node) {
+        return (31 - Integer.numberOfLeadingZeros(node + 1)) % 2 == 0;
+    }
+
+    // the point stored at node
+    private Point2D point(int node) {
+        return new Point2D(this.xs.get(node), this.ys.get(node));
+    }
+
+    // all points that are inside the rectangle (or on the boundary)
+    public Iterable<Point2D> range(RectHV rect) {
+        if (rect == null) throw new IllegalArgumentException("argument to range() is null");
+        ArrayList<Point2D> range = new ArrayList<>();
+        this.range(0, rect.xmin(), rect.ymin(), rect.xmax(), rect.ymax(), range);
+        return range;
+    }
+
+    private void range(int node, double xmin, double ymin, double xmax, double ymax, ArrayList<Point2D> range) {
+        if (node >= this.size) return;
+        double x = this.xs.get(node);
+        double y = this.ys.get(node);
+        if (xmin <= x && x <= xmax && ymin <= y && y <= ymax) range.add(this.point(node));
+        double split = isVertical(node) ? x : y;
+        double min = isVertical(node) ? xmin : ymin;
+        double max = isVertical(node) ? xmax : ymax;
+        if (min <= split) this.range(2 * node + 1, xmin, ymin, xmax, ymax, range);
+        if (max >= split) this.range(2 * node + 2, xmin, ymin, xmax, ymax, range);
+    }
+
+    /**
+     * A nearest neighbor in the set to point p; null if the set is empty.
+     *
+     * The search goes down the side of each split that holds p first, and visits the other side only if its
+     * rectangle is closer than the best point so far. The squared distance from p to a node's rectangle is kept
+     * incrementally from the offsets of p to the nearest x and y boundaries, so no rectangle is ever built.
+     */
+    public Point2D nearest(Point2D p) {
+        if (p == null) throw new IllegalArgumentException("argument to nearest() is null");
+        if (this.isEmpty()) return null;
+        Nearest best = new Nearest();
+        this.nearest(0, p.x(), p.y(), 0.0, 0.0, 0.0, best);
+        return this.point(best.node);
+    }
+
+    // best node and squared distance of a nearest neighbor search
+    private static class Nearest {
+        private int node = -1;
+        private double distance = Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Searches the subtree at node, whose rectangle is at squared distance rectDistance from (x, y),
+     * with dx and dy the offsets from (x, y) to that rectangle along each axis.
+     */
+    private void nearest(int node, double x, double y, double rectDistance, double dx, double dy, Nearest best) {
+        if (node >= this.size || rectDistance >= best.distance) return;
+        double px = this.xs.get(node) - x;
+        double py = this.ys.get(node) - y;
+        double distance = px * px + py * py;
+        if (distance < best.distance) {
+            best.distance = distance;
+            best.node = node;
+        }
+        int near = 2 * node + 1;
+        int far = 2 * node + 2;
+        if (isVertical(node)) {
+            // the far side is at offset px along x
+            if (px < 0) {
+                near = 2 * node + 2;
+                far = 2 * node + 1;
+            }
+            this.nearest(near, x, y, rectDistance, dx, dy, best);
+            this.nearest(far, x, y, rectDistance - dx * dx + px * px, px, dy, best);
+        } else {
+            if (py < 0) {
+                near = 2 * node + 2;
+                far = 2 * node + 1;
+            }
+            this.nearest(near, x, y, rectDistance, dx, dy, best);
+            this.nearest(far, x, y, rectDistance - dy * dy + py * py, dx, py, best);
+        }
+    }
+
+    // unit testing of the methods (optional)
+    public static void main(String[] args) {
+        Point2D[] points = {
+                new Point2D(0.7, 0.2), new Point2D(0.5, 0.4), new Point2D(0.2, 0.3),
+                new Point2D(0.4, 0.7), new Point2D(0.9, 0.6), new Point2D(0.5, 0.4)
+        };
+        FlatKdTree tree = new FlatKdTree(points);
+        assert tree.size() == 5;
+        assert tree.contains(new Point2D(0.4, 0.7));
+        assert !tree.contains(new Point2D(0.4, 0.2));
+        assert tree.nearest(new Point2D(0.8, 0.1)).equals(new Point2D(0.7, 0.2));
+        int count = 0;
+        for (Point2D p : tree.range(new RectHV(0.3, 0.3, 1.0, 1.0))) count++;
+        assert count == 3;
+    }
+}
@@ -7,10 +7,23 @@ import edu.princeton.cs.algs4.In;
 
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Consumer;
 
 public class KdTree {
+    private static final int PARALLEL_CUTOFF = 1 << 14; // subtrees smaller than this are built sequentially
+    private static final double ALPHA = 0.75; // a subtree of m nodes may be log_{1/α}(m) + 1 levels deep
+
     private Node root = null;
     private int size = 0;
+    private int nodes = 0; // number of nodes, including the tombstones of removed points
+    private int insertedDepth = 0; // depth of the node added by insert(), 0 once it is no longer too deep
+    private int addedLive = 0; // change in the number of points made by the current insert()
+    private double addedWeight = 0.0; // change in the total weight made by the current insert()
+    private final ThreadLocal<Search> search = ThreadLocal.withInitial(Search::new); // per-thread nearest() state
+    private final ThreadLocal<Traversal> traversal = ThreadLocal.withInitial(Traversal::new); // per-thread range() stack
 
     private static class Node {
         private final Point2D p;      // the point
@@ -18,6 +31,11 @@ public class KdTree {
         private Node lb;        // the left/bottom subtree
         private Node rt;        // the right/top subtree
         private final boolean isVertical;
+        private int count = 1;  // number of nodes in this subtree, tombstones included
+        private boolean removed = false; // tombstone: the point was removed but the node still splits
+        private double weight = 1.0; // weight of the point
+        private int live = 1; // number of points in this subtree, tombstones excluded
+        private double weightSum = 1.0; // total weight of the points in this subtree, tombstones excluded
 
         public Node(Point2D p, RectHV rect, Node lb, Node rt, boolean isVertical) {
             this.p = p;
@@ -32,9 +50,187 @@ public class KdTree {
     public KdTree() {
     }
 
+    /**
+     * Builds a balanced tree over points, ignoring duplicates, as if they had been inserted in the best order.
+     *
+     * Each node splits its points at their median along its axis, chosen with quickselect, so a tree of n points
+     * with distinct coordinates has depth at most ⌈log₂(n + 1)⌉ whatever the input order (repeated insert() on
+     * sorted input gives depth n). Subtrees of PARALLEL_CUTOFF points or more are built in parallel with fork-join.
+     * Like insert(), it takes only points in the unit square.
+     * Throws IllegalArgumentException if points or any of its entries is null or outside the unit square.
+     */
+    public KdTree(Point2D[] points) {
+        if (points == null) throw new IllegalArgumentException("argument to constructor is null");
+        Point2D[] sorted = points.clone();
+        for (Point2D p : sorted) {
+            if (p == null) throw new IllegalArgumentException("point is null");
+            checkInUnitSquare(p);
+        }
+        // sort to drop duplicates, which quickselect would otherwise spread over both sides of a split
+        Arrays.parallelSort(sorted);
+        int distinct = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (i == 0 || sorted[i].compareTo(sorted[distinct - 1]) != 0) sorted[distinct++] = sorted[i];
+        }
+        double[] weights = new double[distinct];
+        Arrays.fill(weights, 1.0);
+        this.size = distinct;
+        this.nodes = distinct;
+        this.root = new BuildTask(sorted, weights, 0, distinct, new RectHV(0.0, 0.0, 1.0, 1.0), true).invoke();
+    }
+
+    /**
+     * Builds a balanced tree over the points (xs[i], ys[i]), as KdTree(Point2D[]) does.
+     * Throws IllegalArgumentException if xs or ys is null, they differ in length or a point is outside the unit square.
+     */
+    public KdTree(double[] xs, double[] ys) {
+        this(toPoints(xs, ys));
+    }
+
+    private static Point2D[] toPoints(double[] xs, double[] ys) {
+        if (xs == null || ys == null || xs.length != ys.length) throw new IllegalArgumentException();
+        Point2D[] points = new Point2D[xs.length];
+        for (int i = 0; i < xs.length; i++) points[i] = new Point2D(xs[i], ys[i]);
+        return points;
+    }
+
+    /**
+     * Builds the subtree over the distinct points[lo, hi), of weights[lo, hi), whose rectangle is rect.
+     */
+    private static class BuildTask extends RecursiveTask<Node> {
+        private static final long serialVersionUID = 1L;
+
+        private final Point2D[] points;
+        private final double[] weights;
+        private final int lo;
+        private final int hi;
+        private final RectHV rect;
+        private final boolean isVertical;
+
+        BuildTask(Point2D[] points, double[] weights, int lo, int hi, RectHV rect, boolean isVertical) {
+            this.points = points;
+            this.weights = weights;
+            this.lo = lo;
+            this.hi = hi;
+            this.rect = rect;
+            this.isVertical = isVertical;
+        }
+
+        @Override
+        protected Node compute() {
+            if (this.hi - this.lo < PARALLEL_CUTOFF)
+                return build(this.points, this.weights, this.lo, this.hi, this.rect, this.isVertical);
+            int split = partition(this.points, this.weights, this.lo, this.hi, this.isVertical);
+            Node node = new Node(this.points[this.lo], this.rect, null, null, this.isVertical);
+            BuildTask lb = new BuildTask(this.points, this.weights, split, this.hi, getSubRect(node, true),
+                                         !this.isVertical);
+            lb.fork();
+            node.rt = new BuildTask(this.points, this.weights, this.lo + 1, split, getSubRect(node, false),
+                                    !this.isVertical).compute();
+            node.lb = lb.join();
+            setTotals(node, this.weights[this.lo], this.hi - this.lo);
+            return node;
+        }
+    }
+
+    private static Node build(Point2D[] points, double[] weights, int lo, int hi, RectHV rect, boolean isVertical) {
+        if (lo >= hi) return null;
+        int split = partition(points, weights, lo, hi, isVertical);
+        Node node = new Node(points[lo], rect, null, null, isVertical);
+        node.rt = build(points, weights, lo + 1, split, getSubRect(node, false), !isVertical);
+        node.lb = build(points, weights, split, hi, getSubRect(node, true), !isVertical);
+        setTotals(node, weights[lo], hi - lo);
+        return node;
+    }
+
+    // sets the weight of a newly built node of count points, none removed, and its subtree totals
+    private static void setTotals(Node node, double weight, int count) {
+        node.weight = weight;
+        node.count = count;
+        node.live = count;
+        node.weightSum = weight;
+        if (node.lb != null) node.weightSum += node.lb.weightSum;
+        if (node.rt != null) node.weightSum += node.rt.weightSum;
+    }
+
+    /**
+     * Moves the splitting point of points[lo, hi) to lo, followed by the other points whose coordinate along the
+     * axis is not greater than its (the rt side of insert()), then by the greater ones (the lb side), and returns
+     * the index of the first greater point.
+     *
+     * The splitting point is the median, unless points tied with it would make the rt side larger than making the
+     * greatest smaller point the splitting point would; then it is that point.
+     */
+    private static int partition(Point2D[] points, double[] weights, int lo, int hi, boolean isVertical) {
+        int median = lo + (hi - lo) / 2;
+        select(points, weights, lo, hi - 1, median, isVertical);
+        double split = coordinate(points[median], isVertical);
+        // [lo, less) smaller than split, [less, greater) equal, [greater, hi) greater
+        int less = lo;
+        int greater = hi;
+        for (int i = lo; i < greater; ) {
+            double c = coordinate(points[i], isVertical);
+            if (c < split) swap(points, weights, i++, less++);
+            else if (c > split) swap(points, weights, i, --greater);
+            else i++;
+        }
+        if (less > lo && Math.max(less - lo - 1, hi - less) < Math.max(greater - lo - 1, hi - greater)) {
+            int max = lo;
+            for (int i = lo + 1; i < less; i++) {
+                if (coordinate(points[i], isVertical) > coordinate(points[max], isVertical)) max = i;
+            }
+            swap(points, weights, lo, max);
+            return less;
+        }
+        swap(points, weights, lo, less);
+        return greater;
+    }
+
+    private static double coordinate(Point2D p, boolean isVertical) {
+        return isVertical ? p.x() : p.y();
+    }
+
+    /**
+     * Rearranges points[lo..hi] (and weights along with them) so that points[k] has the coordinate it would have
+     * if they were sorted along the axis, with no greater coordinate before it and no smaller one after it.
+     */
+    private static void select(Point2D[] points, double[] weights, int lo, int hi, int k, boolean isVertical) {
+        while (lo < hi) {
+            // median of three pivot, moved to lo
+            int mid = (lo + hi) >>> 1;
+            if (coordinate(points[mid], isVertical) < coordinate(points[lo], isVertical)) swap(points, weights, mid, lo);
+            if (coordinate(points[hi], isVertical) < coordinate(points[lo], isVertical)) swap(points, weights, hi, lo);
+            if (coordinate(points[hi], isVertical) < coordinate(points[mid], isVertical)) swap(points, weights, hi, mid);
+            swap(points, weights, lo, mid);
+            double pivot = coordinate(points[lo], isVertical);
+
+            int i = lo;
+            int j = hi + 1;
+            while (true) {
+                while (coordinate(points[++i], isVertical) < pivot) if (i == hi) break;
+                while (pivot < coordinate(points[--j], isVertical)) if (j == lo) break;
+                if (i >= j) break;
+                swap(points, weights, i, j);
+            }
+            swap(points, weights, lo, j);
+            if (j > k) hi = j - 1;
+            else if (j < k) lo = j + 1;
+            else return;
+        }
+    }
+
+    private static void swap(Point2D[] points, double[] weights, int i, int j) {
+        Point2D t = points[i];
+        points[i] = points[j];
+        points[j] = t;
+        double w = weights[i];
+        weights[i] = weights[j];
+        weights[j] = w;
+    }
+
     // is the set empty?
     public boolean isEmpty() {
-        return this.root == null;
+        return this.size == 0;
     }
 
     // number of points in the set
@@ -42,69 +238,191 @@ public class KdTree {
         return this.size;
     }
 
-    // add the point to the set (if it is not already in the set)
+    // number of nodes on the longest root-to-leaf path, 0 for an empty tree
+    int height() {
+        return height(this.root);
+    }
+
+    private static int height(Node node) {
+        if (node == null) return 0;
+        return 1 + Math.max(height(node.lb), height(node.rt));
+    }
+
+    /**
+     * Adds the point to the set (if it is not already in the set), with weight 1.
+     * Throws IllegalArgumentException if p is outside the unit square, which the node rectangles cover.
+     */
     public void insert(Point2D p) {
         if (p == null) return;
-        this.root = this.insert(this.root, null, true, p);
+        checkInUnitSquare(p);
+        this.insert(p, 1.0, false);
     }
 
-    private RectHV getSubRect(Node parentNode, Point2D p) {
-        int comp;
+    /**
+     * Adds p to the set with the given weight, or sets the weight of p if it is already in the set.
+     * Throws IllegalArgumentException if p is null or outside the unit square, or if weight is NaN.
+     */
+    public void insert(Point2D p, double weight) {
+        if (p == null) throw new IllegalArgumentException("argument to insert() is null");
+        checkInUnitSquare(p);
+        if (Double.isNaN(weight)) throw new IllegalArgumentException("weight is NaN");
+        this.insert(p, weight, true);
+    }
+
+    // the rectangle of a child is cut from its parent's by the parent's point, so that point must be inside it
+    static void checkInUnitSquare(Point2D p) {
+        if (!(0.0 <= p.x() && p.x() <= 1.0 && 0.0 <= p.y() && p.y() <= 1.0))
+            throw new IllegalArgumentException(p + " is outside the unit square");
+    }
+
+    private void insert(Point2D p, double weight, boolean replace) {
+        this.addedLive = 0;
+        this.addedWeight = 0.0;
+        this.root = this.insert(this.root, null, true, p, weight, replace, 1);
+        this.insertedDepth = 0;
+    }
+
+    /**
+     * The rectangle of a child of parentNode: the side with the greater coordinates (lb) or the side with the
+     * smaller or equal ones (rt).
+     */
+    private static RectHV getSubRect(Node parentNode, boolean greater) {
         double xmin = parentNode.rect.xmin();
         double ymin = parentNode.rect.ymin();
         double xmax = parentNode.rect.xmax();
         double ymax = parentNode.rect.ymax();
 
         if (parentNode.isVertical) {
-            comp = Double.compare(p.x(), parentNode.p.x());
-            if (comp < 0) xmax = parentNode.p.x();
-            else xmin = parentNode.p.x();
-            if (xmax < xmin) {
-                double temp = xmax;
-                xmax = xmin;
-                xmin = temp;
-            }
+            if (greater) xmin = parentNode.p.x();
+            else xmax = parentNode.p.x();
         } else {
-            comp = Double.compare(p.y(), parentNode.p.y());
-            if (comp < 0) ymax = parentNode.p.y();
-            else ymin = parentNode.p.y();
-            if (ymax < ymin) {
-                double temp = ymax;
-                ymax = ymin;
-                ymin = temp;
-            }
+            if (greater) ymin = parentNode.p.y();
+            else ymax = parentNode.p.y();
         }
         return new RectHV(xmin, ymin, xmax, ymax);
     }
 
-    private Node insert(Node node, Node parentNode, boolean isVertical, Point2D p) {
+    /**
+     * Inserts p with the given weight in the subtree at node, which is at the given depth (1 for the root); if p
+     * is already in it, its weight is replaced only if replace is set. The changes in the number of points and
+     * their total weight are left in addedLive and addedWeight for the ancestors to add to their totals.
+     *
+     * This is a scapegoat tree insert: if the new node ends up deeper than log_{1/α}(nodes) + 1, the lowest
+     * ancestor whose subtree is deeper than log_{1/α} of its size (the scapegoat) is rebuilt as a balanced
+     * subtree on the way back up. Rebuilding m nodes costs O(m log m), so insert() is O(log² n) amortized and the
+     * height stays O(log n) for any insertion order. Points sharing a coordinate cannot be split along that axis,
+     * so ties can only be balanced on the other one.
+     */
+    private Node insert(Node node, Node parentNode, boolean isVertical, Point2D p, double weight, boolean replace,
+                        int depth) {
         if (node == null) {
             this.size++;
+            this.nodes++;
+            this.addedLive = 1;
+            this.addedWeight = weight;
+            if (depth - 1 > Math.log(this.nodes) / Math.log(1 / ALPHA)) this.insertedDepth = depth;
             RectHV subRect;
             if (parentNode == null) subRect = new RectHV(0.0, 0.0, 1.0, 1.0);
             else {
-                subRect = this.getSubRect(parentNode, p);
+                subRect = getSubRect(parentNode, this.compare(parentNode, p) < 0);
             }
-            return new Node(p, subRect, null, null, isVertical);
+            Node leaf = new Node(p, subRect, null, null, isVertical);
+            leaf.weight = weight;
+            leaf.weightSum = weight;
+            return leaf;
         }
         if (node.p.compareTo(p) == 0) {
+            if (node.removed) {
+                node.removed = false;
+                this.size++;
+                this.addedLive = 1;
+                this.addedWeight = weight;
+                node.weight = weight;
+            } else if (replace) {
+                this.addedWeight = weight - node.weight;
+                node.weight = weight;
+            }
+            node.live += this.addedLive;
+            node.weightSum += this.addedWeight;
             return node;
         }
         // For vertical lines, compare x to decide whether on the right side or left side.
         // For horizontal lines, compare y to decide whether on the top or bottom.
+        int before = this.nodes;
         if (this.compare(node, p) < 0) {
-            node.lb = insert(node.lb, node, !node.isVertical, p);
+            node.lb = insert(node.lb, node, !node.isVertical, p, weight, replace, depth + 1);
         } else {
-            node.rt = insert(node.rt, node, !node.isVertical, p);
+            node.rt = insert(node.rt, node, !node.isVertical, p, weight, replace, depth + 1);
+        }
+        node.live += this.addedLive;
+        node.weightSum += this.addedWeight;
+        // one node more if p was added, minus the tombstones dropped by a rebuild below
+        node.count += this.nodes - before;
+        // insertedDepth is 0 unless a node was just added too deep, and then only this path can be unbalanced
+        if (this.insertedDepth - depth > Math.log(node.count) / Math.log(1 / ALPHA)) {
+            this.insertedDepth = 0;
+            return this.rebuild(node);
         }
 
         return node;
     }
 
+    private static int count(Node node) {
+        return node == null ? 0 : node.count;
+    }
+
+    /**
+     * Removes p from the set and returns whether it was in it.
+     *
+     * The node of p stays in the tree as a tombstone that still splits its rectangle, and is skipped by queries.
+     * Once tombstones outnumber the points, the whole tree is rebuilt from the remaining points.
+     */
+    public boolean remove(Point2D p) {
+        if (p == null) throw new IllegalArgumentException("argument to remove() is null");
+        Node node = this.root;
+        while (node != null && node.p.compareTo(p) != 0) {
+            node = this.compare(node, p) < 0 ? node.lb : node.rt;
+        }
+        if (node == null || node.removed) return false;
+        node.removed = true;
+        // take the point out of the totals of node and its ancestors
+        for (Node curr = this.root; ; curr = this.compare(curr, p) < 0 ? curr.lb : curr.rt) {
+            curr.live--;
+            curr.weightSum -= node.weight;
+            if (curr == node) break;
+        }
+        this.size--;
+        if (2 * this.size < this.nodes) this.root = this.rebuild(this.root);
+        return true;
+    }
+
+    /**
+     * Replaces the subtree at node by a balanced one over its points, without its tombstones.
+     * The new subtree has the same rectangle and splitting axis at its root.
+     */
+    private Node rebuild(Node node) {
+        Point2D[] points = new Point2D[node.count];
+        double[] weights = new double[node.count];
+        int count = collect(node, points, weights, 0);
+        this.nodes -= node.count - count;
+        return new BuildTask(points, weights, 0, count, node.rect, node.isVertical).invoke();
+    }
+
+    // copies the points of the subtree at node and their weights, tombstones excluded, from index count on
+    private static int collect(Node node, Point2D[] points, double[] weights, int count) {
+        if (node == null) return count;
+        if (!node.removed) {
+            points[count] = node.p;
+            weights[count++] = node.weight;
+        }
+        count = collect(node.lb, points, weights, count);
+        return collect(node.rt, points, weights, count);
+    }
+
     // does the set contain point p?
     public boolean contains(Point2D p) {
         if (p == null) throw new IllegalArgumentException("argument to contains() is null");
-        return !this.isEmpty() && p.compareTo(this.root.p) == 0 || this.contains(this.root, p);
+        return this.contains(this.root, p);
     }
 
     /****
@@ -112,7 +430,7 @@ public class KdTree {
      */
     private boolean contains(Node node, Point2D p) {
         if (node == null) return false;
-        if (node.p.compareTo(p) == 0) return true;
+        if (node.p.compareTo(p) == 0) return !node.removed;
 
         int comp = this.compare(node, p);
 
@@ -140,7 +458,7 @@ public class KdTree {
             }
             StdDraw.setPenRadius(0.01);
             StdDraw.setPenColor(StdDraw.BLACK);
-            node.p.draw();
+            if (!node.removed) node.p.draw();
 
             queue.enqueue(node.lb);
             queue.enqueue(node.rt);
@@ -148,98 +466,404 @@ public class KdTree {
     }
 
     // all points that are inside the rectangle (or on the boundary)
+    public Iterable<Point2D> range(RectHV rect) {
+        ArrayList<Point2D> range = new ArrayList<>();
+        this.range(rect, range::add);
+        return range;
+    }
 
     /**
-     * Start at the root and recursively search for points in both subtrees using the following pruning rule:
+     * Start at the root and search for points in both subtrees using the following pruning rule:
      * if the query rectangle does not intersect the rectangle corresponding to a node,
      * there is no need to explore that node (or its subtrees).
      * A subtree is searched only if it might contain a point contained in the query rectangle.
+     *
+     * Passes every point inside rect (or on its boundary) to action. The traversal uses an explicit stack of
+     * nodes kept between the calls of each thread, so it allocates nothing and concurrent queries do not
+     * interfere; action may query this tree too.
      **/
-    public Iterable<Point2D> range(RectHV rect) {
-        ArrayList<Point2D> range = new ArrayList<>();
-        Queue<Node> nodesToSearch = new Queue<>();
-        nodesToSearch.enqueue(this.root);
-        while (!nodesToSearch.isEmpty()) {
-            Node curr = nodesToSearch.dequeue();
-            if (curr == null) continue;
-            if (curr.isVertical) {
-                if (rect.xmin() <= curr.p.x() && curr.p.x() <= rect.xmax() &&
-                        (rect.ymin() <= curr.rect.ymax() || rect.ymax() >= curr.rect.ymin())) {
-                    nodesToSearch.enqueue(curr.lb);
-                    nodesToSearch.enqueue(curr.rt);
-                    if (rect.contains(curr.p)) range.add(curr.p);
-                }
-                if (curr.rect.intersects(rect)) {
-                    if (curr.p.x() < rect.xmin()) nodesToSearch.enqueue(curr.rt);
-                    else if (curr.p.x() > rect.xmax()) nodesToSearch.enqueue(curr.lb);
-                }
-            } else {
-                if (rect.ymin() <= curr.p.y() && curr.p.y() <= rect.ymax() &&
-                        (rect.xmin() <= curr.rect.xmax() || rect.xmax() >= curr.rect.xmin())) {
-                    nodesToSearch.enqueue(curr.lb);
-                    nodesToSearch.enqueue(curr.rt);
-                    if (rect.contains(curr.p)) range.add(curr.p);
-                }
-                if (curr.rect.intersects(rect)) {
-                    if (curr.p.y() < rect.ymin()) nodesToSearch.enqueue(curr.rt);
-                    else if (curr.p.y() > rect.ymax()) nodesToSearch.enqueue(curr.lb);
-                }
+    public void range(RectHV rect, Consumer<Point2D> action) {
+        if (rect == null) throw new IllegalArgumentException("argument to range() is null");
+        if (action == null) throw new IllegalArgumentException("action is null");
+        if (this.root == null || !this.root.rect.intersects(rect)) return;
+        Traversal traversal = this.acquire();
+        try {
+            Node[] stack = traversal.stack;
+            int size = 0;
+            stack[size++] = this.root;
+            while (size > 0) {
+                Node curr = stack[--size];
+                stack[size] = null;
+                if (!curr.removed && rect.contains(curr.p)) action.accept(curr.p);
+                // a stack holds at most one pending sibling per level plus the two children of the deepest node
+                if (size + 2 > stack.length) stack = traversal.stack = Arrays.copyOf(stack, 2 * stack.length);
+                if (curr.lb != null && curr.lb.rect.intersects(rect)) stack[size++] = curr.lb;
+                if (curr.rt != null && curr.rt.rect.intersects(rect)) stack[size++] = curr.rt;
             }
+        } finally {
+            traversal.busy = false;
+        }
+    }
 
+    /**
+     * Stack of the nodes still to visit in a range traversal, reused by the traversals of one thread.
+     * Popped entries are cleared, so an idle stack holds no nodes of the tree.
+     */
+    private static class Traversal {
+        private Node[] stack = new Node[64];
+        private boolean busy = false; // a traversal of this thread is using the stack
+    }
+
+    /**
+     * The calling thread's traversal stack, marked busy until the traversal is done; a new one if it is already
+     * busy, when a range() action queries the tree.
+     */
+    private Traversal acquire() {
+        Traversal traversal = this.traversal.get();
+        if (traversal.busy) return new Traversal();
+        traversal.busy = true;
+        return traversal;
+    }
+
+    /**
+     * Writes the points inside rect (or on its boundary) to buffer, as range(RectHV, Consumer) finds them,
+     * and returns how many there are; only the first buffer.length of them are written.
+     */
+    public int range(RectHV rect, Point2D[] buffer) {
+        if (rect == null) throw new IllegalArgumentException("argument to range() is null");
+        if (buffer == null) throw new IllegalArgumentException("buffer is null");
+        if (this.root == null || !this.root.rect.intersects(rect)) return 0;
+        Traversal traversal = this.acquire();
+        Node[] stack = traversal.stack;
+        int size = 0;
+        int count = 0;
+        stack[size++] = this.root;
+        while (size > 0) {
+            Node curr = stack[--size];
+            stack[size] = null;
+            if (!curr.removed && rect.contains(curr.p)) {
+                if (count < buffer.length) buffer[count] = curr.p;
+                count++;
+            }
+            if (size + 2 > stack.length) stack = traversal.stack = Arrays.copyOf(stack, 2 * stack.length);
+            if (curr.lb != null && curr.lb.rect.intersects(rect)) stack[size++] = curr.lb;
+            if (curr.rt != null && curr.rt.rect.intersects(rect)) stack[size++] = curr.rt;
         }
-        return range;
+        traversal.busy = false;
+        return count;
+    }
+
+    /**
+     * Number of points inside rect (or on its boundary), found without visiting them one by one: a subtree whose
+     * rectangle is inside rect adds its count of points at once, so only the subtrees whose rectangles cross the
+     * boundary of rect are searched, O(√n) of them in a balanced tree.
+     */
+    public int rangeCount(RectHV rect) {
+        if (rect == null) throw new IllegalArgumentException("argument to rangeCount() is null");
+        return (int) this.aggregate(rect, false);
+    }
+
+    /**
+     * Total weight of the points inside rect (or on its boundary), found like rangeCount() with each subtree's
+     * total weight.
+     */
+    public double rangeSum(RectHV rect) {
+        if (rect == null) throw new IllegalArgumentException("argument to rangeSum() is null");
+        return this.aggregate(rect, true);
+    }
+
+    // total weight (or number, unless weighted) of the points inside rect, traversed like range()
+    private double aggregate(RectHV rect, boolean weighted) {
+        if (this.root == null || !this.root.rect.intersects(rect)) return 0.0;
+        Traversal traversal = this.acquire();
+        Node[] stack = traversal.stack;
+        int size = 0;
+        double total = 0.0;
+        stack[size++] = this.root;
+        while (size > 0) {
+            Node curr = stack[--size];
+            stack[size] = null;
+            RectHV r = curr.rect;
+            if (rect.xmin() <= r.xmin() && r.xmax() <= rect.xmax()
+                    && rect.ymin() <= r.ymin() && r.ymax() <= rect.ymax()) {
+                total += weighted ? curr.weightSum : curr.live;
+                continue;
+            }
+            if (!curr.removed && rect.contains(curr.p)) total += weighted ? curr.weight : 1;
+            if (size + 2 > stack.length) stack = traversal.stack = Arrays.copyOf(stack, 2 * stack.length);
+            if (curr.lb != null && curr.lb.rect.intersects(rect)) stack[size++] = curr.lb;
+            if (curr.rt != null && curr.rt.rect.intersects(rect)) stack[size++] = curr.rt;
+        }
+        traversal.busy = false;
+        return total;
     }
 
     /***
-     *  Start at the root and recursively search in both subtrees using the following pruning rule:
+     *  Start at the root and search in both subtrees using the following pruning rule:
      *
      *  if the closest point discovered so far is closer than the distance between the query point and the rectangle corresponding to a node,
      *  there is no need to explore that node (or its subtrees).
      *  That is, search a node only only if it might contain a point that is closer than the best one found so far.
      *
      *  The effectiveness of the pruning rule depends on quickly finding a nearby point.
-     *  To do this, organize the recursive method so that
-     *  when there are two possible subtrees to go down,
-     *  you always choose the subtree that is on the same side of the splitting line as the query point as the first subtree to explore —
+     *  To do this, when there are two possible subtrees to go down,
+     *  always choose the subtree that is on the same side of the splitting line as the query point as the first subtree to explore —
      *      the closest point found while exploring the first subtree may enable pruning of the second subtree.
+     *
+     *  The search works on primitive doubles with an explicit stack kept between the calls of each thread, so it
+     *  allocates nothing and concurrent queries do not interfere.
      * */
     public Point2D nearest(Point2D p) {
+        if (p == null) throw new IllegalArgumentException("argument to nearest() is null");
         if (this.isEmpty()) return null;
-        if (this.root == null) return null;
+        // the root may be a tombstone, so start with no candidate
+        Search search = this.search.get();
+        search.best = null;
+        search.distance = Double.POSITIVE_INFINITY;
+        search.nearest(this.root, p.x(), p.y());
+        Point2D nearest = search.best.p;
+        search.best = null; // so that an idle thread keeps no node alive
+        return nearest;
+    }
+
+    /**
+     * The nearest point of the set to each query point (qx[i], qy[i]); all null if the set is empty.
+     *
+     * The queries are sorted along a Z-order curve so that consecutive ones are close, and the sorted order is
+     * split into chunks searched in parallel with fork-join. Within a chunk, each search starts with the answer
+     * to the previous query as its best point so far, which usually prunes most of the tree right away.
+     * The tree must not be modified while this runs.
+     * Throws IllegalArgumentException if qx or qy is null or they differ in length.
+     */
+    public Point2D[] nearestAll(double[] qx, double[] qy) {
+        if (qx == null || qy == null || qx.length != qy.length) throw new IllegalArgumentException();
+        Point2D[] nearest = new Point2D[qx.length];
+        if (this.isEmpty() || qx.length == 0) return nearest;
+        // Z-order key of each query in the high 32 bits, its index in the low ones
+        long[] order = new long[qx.length];
+        for (int i = 0; i < qx.length; i++) order[i] = (zOrder(qx[i], qy[i]) << 32) | i;
+        Arrays.parallelSort(order);
+        new NearestTask(this.root, qx, qy, order, nearest, 0, order.length).invoke();
+        return nearest;
+    }
+
+    // interleaves the bits of x and y scaled to 16 bits each (clamped to the unit square)
+    private static long zOrder(double x, double y) {
+        return spread((int) (Math.min(Math.max(x, 0.0), 1.0) * 0xFFFF))
+                | spread((int) (Math.min(Math.max(y, 0.0), 1.0) * 0xFFFF)) << 1;
+    }
 
-        Node nearest;
-        if (p.x() < this.root.p.x()) {
-            nearest = this.nearest(p, this.root.lb, this.root, p.distanceSquaredTo(this.root.p));
-            return this.nearest(p, this.root.rt, nearest, p.distanceSquaredTo(nearest.p)).p;
+    // the 16 low bits of v moved to the even bit positions
+    private static long spread(int v) {
+        long x = v & 0xFFFFL;
+        x = (x | (x << 8)) & 0x00FF00FFL;
+        x = (x | (x << 4)) & 0x0F0F0F0FL;
+        x = (x | (x << 2)) & 0x33333333L;
+        return (x | (x << 1)) & 0x55555555L;
+    }
+
+    /**
+     * Answers the queries order[lo, hi) (indices in their low 32 bits) of nearestAll, splitting the range in
+     * halves down to CHUNK queries.
+     */
+    private static class NearestTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private static final int CHUNK = 4096;
+
+        private final Node root;
+        private final double[] qx;
+        private final double[] qy;
+        private final long[] order;
+        private final Point2D[] nearest;
+        private final int lo;
+        private final int hi;
+
+        NearestTask(Node root, double[] qx, double[] qy, long[] order, Point2D[] nearest, int lo, int hi) {
+            this.root = root;
+            this.qx = qx;
+            this.qy = qy;
+            this.order = order;
+            this.nearest = nearest;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.hi - this.lo > CHUNK) {
+                int mid = (this.lo + this.hi) >>> 1;
+                invokeAll(new NearestTask(this.root, this.qx, this.qy, this.order, this.nearest, this.lo, mid),
+                          new NearestTask(this.root, this.qx, this.qy, this.order, this.nearest, mid, this.hi));
+                return;
+            }
+            Search search = new Search();
+            for (int k = this.lo; k < this.hi; k++) {
+                int i = (int) this.order[k];
+                double x = this.qx[i];
+                double y = this.qy[i];
+                // warm start from the previous answer, a point of the set that is likely near this query too
+                if (search.best != null) {
+                    double dx = search.best.p.x() - x;
+                    double dy = search.best.p.y() - y;
+                    search.distance = dx * dx + dy * dy;
+                }
+                search.nearest(this.root, x, y);
+                this.nearest[i] = search.best.p;
+            }
+        }
+    }
+
+    /**
+     * State of a nearest neighbor search over primitive coordinates: the best node so far, its squared
+     * distance to the query point, and the stack of nodes still to visit, reused from one search to the next.
+     * Popped entries of the stack are cleared, so it holds no nodes once a search is done.
+     */
+    private static class Search {
+        private Node best = null;
+        private double distance = Double.POSITIVE_INFINITY;
+        private Node[] stack = new Node[64];
+
+        // searches the subtree at root for points closer to (x, y) than best, the side of each split (x, y) is on first
+        void nearest(Node root, double x, double y) {
+            Node[] stack = this.stack;
+            int size = 0;
+            if (root != null) stack[size++] = root;
+            while (size > 0) {
+                Node node = stack[--size];
+                stack[size] = null;
+                // the bound may have shrunk since node was pushed
+                RectHV rect = node.rect;
+                double dx = Math.max(0.0, Math.max(rect.xmin() - x, x - rect.xmax()));
+                double dy = Math.max(0.0, Math.max(rect.ymin() - y, y - rect.ymax()));
+                if (dx * dx + dy * dy >= this.distance) continue;
+                if (!node.removed) {
+                    double px = node.p.x() - x;
+                    double py = node.p.y() - y;
+                    double distance = px * px + py * py;
+                    if (distance < this.distance) {
+                        this.best = node;
+                        this.distance = distance;
+                    }
+                }
+                // lb holds the coordinates greater than the node's; push the far side first so the near one is next
+                boolean greater = node.isVertical ? node.p.x() < x : node.p.y() < y;
+                Node near = greater ? node.lb : node.rt;
+                Node far = greater ? node.rt : node.lb;
+                if (size + 2 > stack.length) stack = this.stack = Arrays.copyOf(stack, 2 * stack.length);
+                if (far != null) stack[size++] = far;
+                if (near != null) stack[size++] = near;
+            }
+        }
+    }
+
+    /**
+     * The k points of the set nearest to p, nearest first; all of them if the set has fewer than k points.
+     *
+     * Same search as nearest(), but the best points so far are kept in a bounded max-heap and a subtree is
+     * skipped when its rectangle is farther from p than the k-th best point (once there are k of them).
+     * Throws IllegalArgumentException if p is null or k < 1.
+     */
+    public Point2D[] nearest(Point2D p, int k) {
+        if (p == null) throw new IllegalArgumentException("argument to nearest() is null");
+        if (k < 1) throw new IllegalArgumentException("k must be positive: " + k);
+        Neighbors neighbors = new Neighbors(Math.min(k, this.size));
+        this.nearest(p, this.root, neighbors);
+        return neighbors.sorted();
+    }
+
+    private void nearest(Point2D p, Node node, Neighbors neighbors) {
+        if (node == null || node.rect.distanceSquaredTo(p) >= neighbors.bound()) return;
+        if (!node.removed) neighbors.offer(node.p, node.p.distanceSquaredTo(p));
+        // the side of the splitting line p is on first, lb holding the greater coordinates
+        if (this.compare(node, p) < 0) {
+            this.nearest(p, node.lb, neighbors);
+            this.nearest(p, node.rt, neighbors);
         } else {
-            nearest = this.nearest(p, this.root.rt, this.root, p.distanceSquaredTo(this.root.p));
-            return this.nearest(p, this.root.lb, nearest, p.distanceSquaredTo(nearest.p)).p;
+            this.nearest(p, node.rt, neighbors);
+            this.nearest(p, node.lb, neighbors);
         }
     }
 
-    private Node nearest(Point2D p, Node node, Node nearestNode, Double nearestDist) {
-        if (node == null || node.rect.distanceSquaredTo(p) > nearestDist) return nearestNode;
-        Double currDist = node.p.distanceSquaredTo(p);
+    /**
+     * Max-heap of at most capacity points keyed by their squared distance to the query point.
+     */
+    private static class Neighbors {
+        private final Point2D[] points;
+        private final double[] distances;
+        private int size = 0;
+
+        Neighbors(int capacity) {
+            this.points = new Point2D[capacity];
+            this.distances = new double[capacity];
+        }
 
-        if (currDist < nearestDist) {
-            nearestDist = currDist;
-            nearestNode = node;
+        // squared distance a point must beat to get in, the k-th best once the heap is full
+        double bound() {
+            return this.size < this.points.length ? Double.POSITIVE_INFINITY : this.distances[0];
         }
-        // If the min distance from point to rectangle is smaller than nearest, then we should look for more.
-        // We will first look for the zone(x if vertical and y if horizontal) where the query p is, then the other zone.
-        // Otherwise, return the node.
-        int comp = this.compare(node, p);
-        if (comp > 0) {
-            nearestNode = this.nearest(p, node.lb, nearestNode, nearestDist);
-            nearestDist = nearestNode.p.distanceSquaredTo(p);
-            nearestNode = this.nearest(p, node.rt, nearestNode, nearestDist);
-        } else {
-            nearestNode = this.nearest(p, node.rt, nearestNode, nearestDist);
-            nearestDist = nearestNode.p.distanceSquaredTo(p);
-            nearestNode = this.nearest(p, node.lb, nearestNode, nearestDist);
+
+        void offer(Point2D p, double distance) {
+            if (this.size < this.points.length) {
+                // sift up from the new leaf
+                int i = this.size++;
+                while (i > 0 && this.distances[(i - 1) / 2] < distance) {
+                    this.points[i] = this.points[(i - 1) / 2];
+                    this.distances[i] = this.distances[(i - 1) / 2];
+                    i = (i - 1) / 2;
+                }
+                this.points[i] = p;
+                this.distances[i] = distance;
+            } else if (distance < this.distances[0]) {
+                this.replaceMax(p, distance, this.size);
+            }
         }
 
-        return nearestNode;
+        // puts p in place of the farthest point and sifts it down in the heap of the first size entries
+        private void replaceMax(Point2D p, double distance, int size) {
+            int i = 0;
+            while (2 * i + 1 < size) {
+                int child = 2 * i + 1;
+                if (child + 1 < size && this.distances[child + 1] > this.distances[child]) child++;
+                if (this.distances[child] <= distance) break;
+                this.points[i] = this.points[child];
+                this.distances[i] = this.distances[child];
+                i = child;
+            }
+            this.points[i] = p;
+            this.distances[i] = distance;
+        }
+
+        // the points nearest first; heapsorts the backing array in place
+        Point2D[] sorted() {
+            for (int end = this.size - 1; end > 0; end--) {
+                Point2D farthest = this.points[0];
+                double distance = this.distances[0];
+                this.replaceMax(this.points[end], this.distances[end], end);
+                this.points[end] = farthest;
+                this.distances[end] = distance;
+            }
+            return this.points;
+        }
+    }
+
+    /**
+     * All points of the set at distance at most r from p (or on the circle), in no particular order.
+     * A subtree is searched only if its rectangle is within r of p.
+     * Throws IllegalArgumentException if p is null or r is negative.
+     */
+    public Iterable<Point2D> withinRadius(Point2D p, double r) {
+        if (p == null) throw new IllegalArgumentException("argument to withinRadius() is null");
+        if (!(r >= 0)) throw new IllegalArgumentException("radius must be non-negative: " + r);
+        ArrayList<Point2D> points = new ArrayList<>();
+        this.withinRadius(p, r * r, this.root, points);
+        return points;
+    }
+
+    private void withinRadius(Point2D p, double r2, Node node, ArrayList<Point2D> points) {
+        if (node == null || node.rect.distanceSquaredTo(p) > r2) return;
+        if (!node.removed && node.p.distanceSquaredTo(p) <= r2) points.add(node.p);
+        this.withinRadius(p, r2, node.lb, points);
+        this.withinRadius(p, r2, node.rt, points);
     }
 
     private int compare(Node node, Point2D p) {
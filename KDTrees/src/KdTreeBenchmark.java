@@ -0,0 +1,696 @@
+/******************************************************************************
+ *  Compilation:  javac KdTreeBenchmark.java
+ *  Execution:    java KdTreeBenchmark mode n queries [seed]
+ *  Dependencies: KdTree.java FlatKdTree.java ConcurrentKdTree.java KdTreeND.java
+ *                BucketKdTree.java PointSET.java PointGrid.java
+ *
+ *  Timing harness for the 2d-trees, over n uniformly random points in the
+ *  unit square.
+ *
+ *    - flat: builds a KdTree by insertion and a FlatKdTree from the same
+ *      points, and reports the heap retained per point by each, and the
+ *      latency of nearest() and of range() over squares holding about 100
+ *      points, over queries random query points, best of 5 runs.
+ *    - build: builds a KdTree from the points with the bulk constructor,
+ *      from the same points sorted by x (time-ordered feeds look like this)
+ *      and by inserting them in random order, and reports for each the
+ *      build throughput (best of 3), the height and the nearest() latency.
+ *    - range: runs range() over squares holding about 100 points on a
+ *      bulk-built KdTree, returning an Iterable, calling back a Consumer
+ *      and filling a buffer, and reports the latency and the bytes
+ *      allocated per query (measured with the per-thread allocation
+ *      counter) of each, best of 5 runs.
+ *    - stress: inserts the points into a ConcurrentKdTree from several
+ *      writer threads, every point by two of them, while as many reader
+ *      threads check that each point a writer is done with is found by
+ *      contains() and nearest(); then checks size() and range() against
+ *      the points. Throws IllegalStateException on the first inconsistency.
+ *    - concurrent: starts from n points and runs queries operations per
+ *      thread, 95% nearest() and 5% insert() of new points, on a KdTree
+ *      behind a single lock and on a ConcurrentKdTree, and reports the
+ *      total operations per second for 1, 2, 4, ... threads up to twice
+ *      the number of processors.
+ *    - batch: answers queries random nearest neighbor queries on a
+ *      bulk-built KdTree with one nearest() call each and with one
+ *      nearestAll() call, checks that the answers are equally near and
+ *      reports the queries per second of both.
+ *    - alloc: runs nearest() for queries random points on a bulk-built
+ *      KdTree and reports the bytes allocated per call (measured with the
+ *      per-thread allocation counter, the same figure as JMH's
+ *      gc.alloc.rate.norm) and the latency, over the last of 5 runs.
+ *    - snapshot: builds a FlatKdTree, saves it to a snapshot file in the
+ *      temporary directory, opens it again and reports the build, save and
+ *      open times, the latency of the first query on the opened tree, and
+ *      the nearest() latency on the built and on the mapped tree.
+ *    - dimensions: for d = 2 to 8, builds a KdTreeND over n uniformly
+ *      random points in the unit d-cube with each split rule, checks its
+ *      nearest() answers against a linear scan and reports the build time
+ *      and the latency of nearest() and of the 10 nearest of both, and of
+ *      the scan, over queries random query points, best of 5 runs.
+ *    - bucket: builds a FlatKdTree and BucketKdTrees with bucket sizes 1,
+ *      2, 4, ... 256 from the points, and reports for each the build time,
+ *      the height and the latency of nearest() and of range() over squares
+ *      holding about 10 and about 1000 points, best of 5 runs.
+ *    - grid: inserts the same n points into a PointSET, a KdTree and a
+ *      PointGrid, and reports the insert throughput and the latency of
+ *      nearest() and of range() over squares that would hold about 100
+ *      uniform points, over queries query points, best of 5 runs; once for
+ *      uniformly random points and once for points in 20 tight Gaussian
+ *      clusters, with the query points drawn the same way.
+ *    - aggregate: counts the points in random rectangles with sides up to
+ *      1 on a bulk-built KdTree, by iterating over range() and with
+ *      rangeCount(), and sums their weights with rangeSum(), checking that
+ *      the counts agree, and reports the latency of each, best of 5 runs.
+ *
+ *  % java KdTreeBenchmark flat 1000000 100000 42
+ *  % java -Xmx4g KdTreeBenchmark build 10000000 100000 42
+ *  % java KdTreeBenchmark range 1000000 200000 42
+ *  % java KdTreeBenchmark stress 1000000 0 42
+ *  % java KdTreeBenchmark concurrent 1000000 200000 42
+ *  % java KdTreeBenchmark batch 1000000 1000000 42
+ *  % java KdTreeBenchmark alloc 1000000 1000000 42
+ *  % java KdTreeBenchmark snapshot 20000000 100000 42
+ *  % java KdTreeBenchmark dimensions 1000000 500 42
+ *  % java KdTreeBenchmark bucket 10000000 100000 42
+ *  % java KdTreeBenchmark grid 100000 500 42
+ *  % java KdTreeBenchmark aggregate 1000000 200 42
+ *
+ ******************************************************************************/
+
+import edu.princeton.cs.algs4.Point2D;
+import edu.princeton.cs.algs4.RectHV;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+public class KdTreeBenchmark {
+    private static final int RUNS = 5;
+    private static long sink; // consumes query results so the timed loops are not optimized away
+
+    // n uniformly random points in the unit square
+    private static Point2D[] randomPoints(int n, SplittableRandom random) {
+        Point2D[] points = new Point2D[n];
+        for (int i = 0; i < n; i++) points[i] = new Point2D(random.nextDouble(), random.nextDouble());
+        return points;
+    }
+
+    // squares centered on random points, each holding about count of n uniform points
+    private static RectHV[] randomRects(int queries, int n, int count, SplittableRandom random) {
+        double half = Math.min(0.5, Math.sqrt((double) count / n) / 2);
+        RectHV[] rects = new RectHV[queries];
+        for (int i = 0; i < queries; i++) {
+            double x = random.nextDouble();
+            double y = random.nextDouble();
+            rects[i] = new RectHV(Math.max(0.0, x - half), Math.max(0.0, y - half),
+                                  Math.min(1.0, x + half), Math.min(1.0, y + half));
+        }
+        return rects;
+    }
+
+    // heap in use after letting the garbage collector settle
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 4; i++) {
+            System.gc();
+            Thread.yield();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static void flat(int n, int queries, long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        Point2D[] points = randomPoints(n, random);
+        Point2D[] targets = randomPoints(queries, random);
+        RectHV[] rects = randomRects(queries, n, 100, random);
+
+        long before = usedHeap();
+        KdTree tree = new KdTree();
+        for (Point2D p : points) tree.insert(p);
+        // plus the Point2D objects the nodes share with the input, 32 bytes each
+        long treeBytes = usedHeap() - before + 32L * n;
+        before = usedHeap();
+        FlatKdTree flat = new FlatKdTree(points);
+        long flatBytes = usedHeap() - before;
+
+        double treeNearest = Double.POSITIVE_INFINITY;
+        double flatNearest = Double.POSITIVE_INFINITY;
+        double treeRange = Double.POSITIVE_INFINITY;
+        double flatRange = Double.POSITIVE_INFINITY;
+        for (int run = 0; run < RUNS; run++) {
+            long start = System.nanoTime();
+            for (Point2D p : targets) sink += tree.nearest(p).hashCode();
+            treeNearest = Math.min(treeNearest, (double) (System.nanoTime() - start) / queries);
+
+            start = System.nanoTime();
+            for (Point2D p : targets) sink += flat.nearest(p).hashCode();
+            flatNearest = Math.min(flatNearest, (double) (System.nanoTime() - start) / queries);
+
+            start = System.nanoTime();
+            for (RectHV rect : rects) for (Point2D p : tree.range(rect)) sink++;
+            treeRange = Math.min(treeRange, (double) (System.nanoTime() - start) / queries);
+
+            start = System.nanoTime();
+            for (RectHV rect : rects) for (Point2D p : flat.range(rect)) sink++;
+            flatRange = Math.min(flatRange, (double) (System.nanoTime() - start) / queries);
+        }
+
+        report("KdTree", (double) treeBytes / n, treeNearest, treeRange);
+        report("FlatKdTree", (double) flatBytes / n, flatNearest, flatRange);
+    }
+
+    private static void build(int n, int queries, long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        Point2D[] points = randomPoints(n, random);
+        Point2D[] targets = randomPoints(queries, random);
+        Point2D[] sorted = points.clone();
+        Arrays.sort(sorted, Comparator.comparingDouble(Point2D::x));
+
+        KdTree tree = null;
+        double best = 0.0;
+        for (int run = 0; run < 3; run++) {
+            tree = null;
+            long start = System.nanoTime();
+            tree = new KdTree(points);
+            best = Math.max(best, n / ((System.nanoTime() - start) * 1e-9));
+        }
+        report("bulk", best, tree.height(), nearestNanos(tree, targets));
+
+        best = 0.0;
+        for (int run = 0; run < 3; run++) {
+            tree = null;
+            long start = System.nanoTime();
+            tree = new KdTree(sorted);
+            best = Math.max(best, n / ((System.nanoTime() - start) * 1e-9));
+        }
+        report("bulk sorted", best, tree.height(), nearestNanos(tree, targets));
+
+        // random insertion order keeps the height near 2 ln n, sorted input would make it n
+        best = 0.0;
+        for (int run = 0; run < 3; run++) {
+            tree = null;
+            long start = System.nanoTime();
+            tree = new KdTree();
+            for (Point2D p : points) tree.insert(p);
+            best = Math.max(best, n / ((System.nanoTime() - start) * 1e-9));
+        }
+        report("insert", best, tree.height(), nearestNanos(tree, targets));
+    }
+
+    // bytes allocated so far by the current thread
+    private static long allocatedBytes() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static void range(int n, int queries, long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        KdTree tree = new KdTree(randomPoints(n, random));
+        RectHV[] rects = randomRects(queries, n, 100, random);
+        Point2D[] buffer = new Point2D[1024];
+
+        double[] nanos = { Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY };
+        double[] bytes = new double[3];
+        for (int run = 0; run < RUNS; run++) {
+            long allocated = allocatedBytes();
+            long start = System.nanoTime();
+            for (RectHV rect : rects) for (Point2D p : tree.range(rect)) sink++;
+            nanos[0] = Math.min(nanos[0], (double) (System.nanoTime() - start) / queries);
+            bytes[0] = (double) (allocatedBytes() - allocated) / queries;
+
+            allocated = allocatedBytes();
+            start = System.nanoTime();
+            for (RectHV rect : rects) tree.range(rect, p -> sink++);
+            nanos[1] = Math.min(nanos[1], (double) (System.nanoTime() - start) / queries);
+            bytes[1] = (double) (allocatedBytes() - allocated) / queries;
+
+            allocated = allocatedBytes();
+            start = System.nanoTime();
+            for (RectHV rect : rects) sink += tree.range(rect, buffer);
+            nanos[2] = Math.min(nanos[2], (double) (System.nanoTime() - start) / queries);
+            bytes[2] = (double) (allocatedBytes() - allocated) / queries;
+        }
+        String[] variants = { "Iterable", "Consumer", "buffer" };
+        for (int i = 0; i < variants.length; i++) {
+            System.out.printf("%-12s range = %9.1f ns   bytes/query = %9.2f%n", variants[i], nanos[i], bytes[i]);
+        }
+    }
+
+    private static void stress(int n, long seed) throws InterruptedException {
+        int writers = Math.max(4, Runtime.getRuntime().availableProcessors());
+        SplittableRandom random = new SplittableRandom(seed);
+        Point2D[] points = randomPoints(n, random);
+        ConcurrentKdTree tree = new ConcurrentKdTree();
+        // writer w inserts the points i with i % writers == w or (w + 1) % writers, in increasing i
+        AtomicIntegerArray done = new AtomicIntegerArray(writers); // points each writer is done with
+        AtomicIntegerArray added = new AtomicIntegerArray(writers); // inserts that returned true
+        AtomicReference<String> failure = new AtomicReference<>();
+
+        Thread[] threads = new Thread[2 * writers];
+        for (int t = 0; t < writers; t++) {
+            int w = t;
+            threads[t] = new Thread(() -> {
+                int count = 0;
+                for (int i = 0; i < n && failure.get() == null; i++) {
+                    if (i % writers != w && i % writers != (w + 1) % writers) continue;
+                    if (tree.insert(points[i])) added.incrementAndGet(w);
+                    done.set(w, ++count);
+                }
+            });
+        }
+        for (int t = 0; t < writers; t++) {
+            SplittableRandom local = random.split();
+            threads[writers + t] = new Thread(() -> {
+                while (failure.get() == null && !finished(done, writers, n)) {
+                    int w = local.nextInt(writers);
+                    int count = done.get(w);
+                    if (count == 0) continue;
+                    // the k-th point of writer w is the (k % 2)-th of its two residues in the block k / 2
+                    int k = local.nextInt(count);
+                    int first = Math.min(w, (w + 1) % writers);
+                    int second = Math.max(w, (w + 1) % writers);
+                    int i = (k / 2) * writers + (k % 2 == 0 ? first : second);
+                    if (i >= n) continue;
+                    Point2D p = points[i];
+                    if (!tree.contains(p)) failure.compareAndSet(null, "contains missed " + p);
+                    else if (!p.equals(tree.nearest(p))) failure.compareAndSet(null, "nearest missed " + p);
+                }
+            });
+        }
+        for (Thread thread : threads) thread.start();
+        for (Thread thread : threads) thread.join();
+        if (failure.get() != null) throw new IllegalStateException(failure.get());
+
+        int total = 0;
+        for (int w = 0; w < writers; w++) total += added.get(w);
+        int[] count = new int[1];
+        tree.range(new RectHV(0.0, 0.0, 1.0, 1.0), p -> count[0]++);
+        if (total != n || tree.size() != n || count[0] != n)
+            throw new IllegalStateException("inserted " + total + ", size " + tree.size() + ", range " + count[0]);
+        for (Point2D p : points) {
+            if (!tree.contains(p)) throw new IllegalStateException("lost " + p);
+        }
+        System.out.printf("%d points, %d writers and %d readers: consistent%n", n, writers, writers);
+    }
+
+    // has every writer of stress() gone through all its points?
+    private static boolean finished(AtomicIntegerArray done, int writers, int n) {
+        int total = 0;
+        for (int w = 0; w < writers; w++) total += done.get(w);
+        return total == 2 * n;
+    }
+
+    private static void concurrent(int n, int queries, long seed) throws InterruptedException {
+        SplittableRandom random = new SplittableRandom(seed);
+        Point2D[] points = randomPoints(n, random);
+        int processors = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; threads <= Math.max(4, 2 * processors); threads *= 2) {
+            KdTree locked = new KdTree(points);
+            double lockedOps = mixed(threads, queries, random.split(), p -> {
+                synchronized (locked) {
+                    locked.insert(p);
+                }
+            }, p -> {
+                synchronized (locked) {
+                    return locked.nearest(p);
+                }
+            });
+
+            ConcurrentKdTree tree = new ConcurrentKdTree();
+            for (Point2D p : points) tree.insert(p);
+            double concurrentOps = mixed(threads, queries, random.split(), tree::insert, tree::nearest);
+            System.out.printf("threads = %3d   locked KdTree ops/sec = %12.0f   ConcurrentKdTree ops/sec = %12.0f%n",
+                    threads, lockedOps, concurrentOps);
+        }
+    }
+
+    /**
+     * Runs queries operations on each of threads threads, 5% insert of a random point and 95% nearest to one,
+     * and returns the total operations per second.
+     */
+    private static double mixed(int threads, int queries, SplittableRandom random,
+                                Consumer<Point2D> insert, Function<Point2D, Point2D> nearest) throws InterruptedException {
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            SplittableRandom local = random.split();
+            workers[t] = new Thread(() -> {
+                long hash = 0;
+                for (int i = 0; i < queries; i++) {
+                    Point2D p = new Point2D(local.nextDouble(), local.nextDouble());
+                    if (local.nextInt(100) < 5) insert.accept(p);
+                    else hash += nearest.apply(p).hashCode();
+                }
+                synchronized (KdTreeBenchmark.class) {
+                    sink += hash;
+                }
+            });
+        }
+        long start = System.nanoTime();
+        for (Thread worker : workers) worker.start();
+        for (Thread worker : workers) worker.join();
+        return (double) threads * queries / ((System.nanoTime() - start) * 1e-9);
+    }
+
+    private static void batch(int n, int queries, long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        KdTree tree = new KdTree(randomPoints(n, random));
+        double[] qx = new double[queries];
+        double[] qy = new double[queries];
+        for (int i = 0; i < queries; i++) {
+            qx[i] = random.nextDouble();
+            qy[i] = random.nextDouble();
+        }
+
+        Point2D[] single = new Point2D[queries];
+        long start = System.nanoTime();
+        for (int i = 0; i < queries; i++) single[i] = tree.nearest(new Point2D(qx[i], qy[i]));
+        double singleRate = queries / ((System.nanoTime() - start) * 1e-9);
+
+        start = System.nanoTime();
+        Point2D[] batch = tree.nearestAll(qx, qy);
+        double batchRate = queries / ((System.nanoTime() - start) * 1e-9);
+
+        for (int i = 0; i < queries; i++) {
+            Point2D q = new Point2D(qx[i], qy[i]);
+            if (single[i].distanceSquaredTo(q) != batch[i].distanceSquaredTo(q))
+                throw new IllegalStateException("nearest() and nearestAll() disagree on " + q);
+        }
+        System.out.printf("nearest()    queries/sec = %12.0f%n", singleRate);
+        System.out.printf("nearestAll() queries/sec = %12.0f   (%.1fx)%n", batchRate, batchRate / singleRate);
+    }
+
+    private static void alloc(int n, int queries, long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        KdTree tree = new KdTree(randomPoints(n, random));
+        Point2D[] targets = randomPoints(queries, random);
+        double bytesPerCall = 0.0;
+        double nanos = 0.0;
+        for (int run = 0; run < RUNS; run++) {
+            long before = allocatedBytes();
+            long start = System.nanoTime();
+            for (Point2D p : targets) sink += tree.nearest(p).hashCode();
+            nanos = (double) (System.nanoTime() - start) / queries;
+            bytesPerCall = (double) (allocatedBytes() - before) / queries;
+        }
+        System.out.printf("KdTree.nearest   bytes/op = %8.3f   nearest = %9.1f ns%n", bytesPerCall, nanos);
+    }
+
+    private static void snapshot(int n, int queries, long seed) throws IOException {
+        SplittableRandom random = new SplittableRandom(seed);
+        Point2D[] points = randomPoints(n, random);
+        Point2D[] targets = randomPoints(queries, random);
+        File file = File.createTempFile("kdtree", ".snapshot");
+        file.deleteOnExit();
+
+        long start = System.nanoTime();
+        FlatKdTree built = new FlatKdTree(points);
+        double buildSeconds = (System.nanoTime() - start) * 1e-9;
+        points = null;
+        start = System.nanoTime();
+        built.save(file.getPath());
+        double saveSeconds = (System.nanoTime() - start) * 1e-9;
+
+        start = System.nanoTime();
+        FlatKdTree mapped = FlatKdTree.open(file.getPath());
+        double openSeconds = (System.nanoTime() - start) * 1e-9;
+        start = System.nanoTime();
+        sink += mapped.nearest(targets[0]).hashCode();
+        double firstQuery = (System.nanoTime() - start) * 1e-9;
+
+        System.out.printf("build = %.3f s   save = %.3f s   open = %.6f s   first query = %.6f s   (%d MB)%n",
+                buildSeconds, saveSeconds, openSeconds, firstQuery, file.length() >> 20);
+        System.out.printf("nearest: built = %9.1f ns   mapped = %9.1f ns%n",
+                nearestNanos(built, targets), nearestNanos(mapped, targets));
+    }
+
+    private static void dimensions(int n, int queries, long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        for (int d = 2; d <= 8; d++) {
+            double[][] points = randomPoints(n, d, random);
+            double[][] targets = randomPoints(queries, d, random);
+            double scan = Double.POSITIVE_INFINITY;
+            int[] expected = new int[queries];
+            for (int run = 0; run < RUNS; run++) {
+                long start = System.nanoTime();
+                for (int i = 0; i < queries; i++) expected[i] = nearestByScan(points, targets[i]);
+                scan = Math.min(scan, (double) (System.nanoTime() - start) / queries);
+            }
+
+            for (KdTreeND.Split split : KdTreeND.Split.values()) {
+                long start = System.nanoTime();
+                KdTreeND tree = new KdTreeND(points, split);
+                double buildSeconds = (System.nanoTime() - start) * 1e-9;
+                double nearest = Double.POSITIVE_INFINITY;
+                double nearest10 = Double.POSITIVE_INFINITY;
+                for (int run = 0; run < RUNS; run++) {
+                    start = System.nanoTime();
+                    for (double[] q : targets) sink += tree.nearest(q);
+                    nearest = Math.min(nearest, (double) (System.nanoTime() - start) / queries);
+
+                    start = System.nanoTime();
+                    for (double[] q : targets) sink += tree.nearest(q, 10)[0];
+                    nearest10 = Math.min(nearest10, (double) (System.nanoTime() - start) / queries);
+                }
+                for (int i = 0; i < queries; i++) {
+                    int found = tree.nearest(targets[i]);
+                    if (distanceSquared(points[found], targets[i]) != distanceSquared(points[expected[i]], targets[i]))
+                        throw new IllegalStateException("KdTreeND and the scan disagree in dimension " + d);
+                }
+                System.out.printf("d = %d  %-10s build = %6.3f s   nearest = %9.1f ns   nearest 10 = %9.1f ns"
+                        + "   scan = %11.1f ns   (%.0fx)%n",
+                        d, split, buildSeconds, nearest, nearest10, scan, scan / nearest);
+            }
+        }
+    }
+
+    private static void bucket(int n, int queries, long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        Point2D[] points = randomPoints(n, random);
+        Point2D[] targets = randomPoints(queries, random);
+        RectHV[] small = randomRects(queries, n, 10, random);
+        RectHV[] large = randomRects(queries / 10, n, 1000, random);
+
+        long start = System.nanoTime();
+        FlatKdTree flat = new FlatKdTree(points);
+        double buildSeconds = (System.nanoTime() - start) * 1e-9;
+        int height = 31 - Integer.numberOfLeadingZeros(flat.size());
+        report("flat", buildSeconds, height, nearestNanos(flat, targets),
+                rangeNanos(flat::range, small), rangeNanos(flat::range, large));
+        for (int bucketSize = 1; bucketSize <= 256; bucketSize *= 2) {
+            start = System.nanoTime();
+            BucketKdTree tree = new BucketKdTree(points, bucketSize);
+            buildSeconds = (System.nanoTime() - start) * 1e-9;
+            double nearest = Double.POSITIVE_INFINITY;
+            for (int run = 0; run < RUNS; run++) {
+                start = System.nanoTime();
+                for (Point2D p : targets) sink += tree.nearest(p).hashCode();
+                nearest = Math.min(nearest, (double) (System.nanoTime() - start) / queries);
+            }
+            report("B = " + bucketSize, buildSeconds, tree.height(), nearest,
+                    rangeNanos(tree::range, small), rangeNanos(tree::range, large));
+        }
+    }
+
+    private static void grid(int n, int queries, long seed) {
+        for (boolean clustered : new boolean[] { false, true }) {
+            SplittableRandom random = new SplittableRandom(seed);
+            Point2D[] points = clustered ? clusteredPoints(n, random) : randomPoints(n, random);
+            Point2D[] targets = clustered ? clusteredPoints(queries, random) : randomPoints(queries, random);
+            double half = Math.sqrt(100.0 / n) / 2;
+            RectHV[] rects = new RectHV[queries];
+            for (int i = 0; i < queries; i++) {
+                Point2D p = targets[i];
+                rects[i] = new RectHV(Math.max(0.0, p.x() - half), Math.max(0.0, p.y() - half),
+                                      Math.min(1.0, p.x() + half), Math.min(1.0, p.y() + half));
+            }
+            System.out.println(clustered ? "clustered" : "uniform");
+            PointSET set = new PointSET();
+            index("PointSET", points, set::insert, set::nearest, set::range, targets, rects);
+            KdTree tree = new KdTree();
+            index("KdTree", points, tree::insert, tree::nearest, tree::range, targets, rects);
+            PointGrid grid = new PointGrid();
+            index("PointGrid", points, grid::insert, grid::nearest, grid::range, targets, rects);
+        }
+    }
+
+    private static void aggregate(int n, int queries, long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        KdTree tree = new KdTree(randomPoints(n, random));
+        RectHV[] rects = new RectHV[queries];
+        for (int i = 0; i < queries; i++) {
+            double x0 = random.nextDouble();
+            double x1 = random.nextDouble();
+            double y0 = random.nextDouble();
+            double y1 = random.nextDouble();
+            rects[i] = new RectHV(Math.min(x0, x1), Math.min(y0, y1), Math.max(x0, x1), Math.max(y0, y1));
+        }
+        long points = 0;
+        for (RectHV rect : rects) {
+            int count = 0;
+            for (Point2D p : tree.range(rect)) count++;
+            if (count != tree.rangeCount(rect))
+                throw new IllegalStateException("range() and rangeCount() disagree on " + rect);
+            points += count;
+        }
+
+        double range = Double.POSITIVE_INFINITY;
+        double count = Double.POSITIVE_INFINITY;
+        double sum = Double.POSITIVE_INFINITY;
+        for (int run = 0; run < RUNS; run++) {
+            long start = System.nanoTime();
+            for (RectHV rect : rects) for (Point2D p : tree.range(rect)) sink++;
+            range = Math.min(range, (double) (System.nanoTime() - start) / queries);
+
+            start = System.nanoTime();
+            for (RectHV rect : rects) sink += tree.rangeCount(rect);
+            count = Math.min(count, (double) (System.nanoTime() - start) / queries);
+
+            start = System.nanoTime();
+            for (RectHV rect : rects) sink += (long) tree.rangeSum(rect);
+            sum = Math.min(sum, (double) (System.nanoTime() - start) / queries);
+        }
+        System.out.printf("points/query = %.0f%n", (double) points / queries);
+        System.out.printf("range()      = %12.1f ns%n", range);
+        System.out.printf("rangeCount() = %12.1f ns   (%.0fx)%n", count, range / count);
+        System.out.printf("rangeSum()   = %12.1f ns   (%.0fx)%n", sum, range / sum);
+    }
+
+    // n points around 20 random centers, normally distributed with standard deviation 0.01, in the unit square
+    private static Point2D[] clusteredPoints(int n, SplittableRandom random) {
+        Random gaussian = new Random(random.nextLong());
+        Point2D[] centers = randomPoints(20, new SplittableRandom(0));
+        Point2D[] points = new Point2D[n];
+        for (int i = 0; i < n; i++) {
+            Point2D center = centers[random.nextInt(centers.length)];
+            double x = Math.min(1.0, Math.max(0.0, center.x() + 0.01 * gaussian.nextGaussian()));
+            double y = Math.min(1.0, Math.max(0.0, center.y() + 0.01 * gaussian.nextGaussian()));
+            points[i] = new Point2D(x, y);
+        }
+        return points;
+    }
+
+    // inserts points with insert, then times the queries
+    private static void index(String name, Point2D[] points, Consumer<Point2D> insert,
+                              Function<Point2D, Point2D> nearest, Function<RectHV, Iterable<Point2D>> range,
+                              Point2D[] targets, RectHV[] rects) {
+        long start = System.nanoTime();
+        for (Point2D p : points) insert.accept(p);
+        double insertRate = points.length / ((System.nanoTime() - start) * 1e-9);
+        double nearestNanos = Double.POSITIVE_INFINITY;
+        for (int run = 0; run < RUNS; run++) {
+            start = System.nanoTime();
+            for (Point2D p : targets) sink += nearest.apply(p).hashCode();
+            nearestNanos = Math.min(nearestNanos, (double) (System.nanoTime() - start) / targets.length);
+        }
+        System.out.printf("  %-10s inserts/sec = %11.0f   nearest = %11.1f ns   range = %11.1f ns%n",
+                name, insertRate, nearestNanos, rangeNanos(range, rects));
+    }
+
+    // nanoseconds per range() query, best of RUNS runs
+    private static double rangeNanos(Function<RectHV, Iterable<Point2D>> range, RectHV[] rects) {
+        double best = Double.POSITIVE_INFINITY;
+        for (int run = 0; run < RUNS; run++) {
+            long start = System.nanoTime();
+            for (RectHV rect : rects) for (Point2D p : range.apply(rect)) sink++;
+            best = Math.min(best, (double) (System.nanoTime() - start) / rects.length);
+        }
+        return best;
+    }
+
+    private static void report(String tree, double buildSeconds, int height, double nearestNanos,
+                               double smallRangeNanos, double largeRangeNanos) {
+        System.out.printf("%-8s build = %6.3f s   height = %3d   nearest = %7.1f ns   range 10 = %8.1f ns"
+                + "   range 1000 = %9.1f ns%n", tree, buildSeconds, height, nearestNanos, smallRangeNanos,
+                largeRangeNanos);
+    }
+
+    // n uniformly random points in the unit d-cube
+    private static double[][] randomPoints(int n, int d, SplittableRandom random) {
+        double[][] points = new double[n][d];
+        for (double[] p : points) for (int k = 0; k < d; k++) p[k] = random.nextDouble();
+        return points;
+    }
+
+    // index of a point nearest to q, by checking them all
+    private static int nearestByScan(double[][] points, double[] q) {
+        int best = 0;
+        double bestDistance = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < points.length; i++) {
+            double distance = distanceSquared(points[i], q);
+            if (distance < bestDistance) {
+                best = i;
+                bestDistance = distance;
+            }
+        }
+        return best;
+    }
+
+    private static double distanceSquared(double[] p, double[] q) {
+        double distance = 0.0;
+        for (int k = 0; k < p.length; k++) {
+            double diff = p[k] - q[k];
+            distance += diff * diff;
+        }
+        return distance;
+    }
+
+    // nanoseconds per FlatKdTree.nearest() query, best of RUNS runs
+    private static double nearestNanos(FlatKdTree tree, Point2D[] targets) {
+        double best = Double.POSITIVE_INFINITY;
+        for (int run = 0; run < RUNS; run++) {
+            long start = System.nanoTime();
+            for (Point2D p : targets) sink += tree.nearest(p).hashCode();
+            best = Math.min(best, (double) (System.nanoTime() - start) / targets.length);
+        }
+        return best;
+    }
+
+    // nanoseconds per nearest() query, best of RUNS runs
+    private static double nearestNanos(KdTree tree, Point2D[] targets) {
+        double best = Double.POSITIVE_INFINITY;
+        for (int run = 0; run < RUNS; run++) {
+            long start = System.nanoTime();
+            for (Point2D p : targets) sink += tree.nearest(p).hashCode();
+            best = Math.min(best, (double) (System.nanoTime() - start) / targets.length);
+        }
+        return best;
+    }
+
+    private static void report(String build, double pointsPerSec, int height, double nearestNanos) {
+        System.out.printf("%-12s points/sec = %12.0f   height = %7d   nearest = %9.1f ns%n",
+                build, pointsPerSec, height, nearestNanos);
+    }
+
+    private static void report(String tree, double bytesPerPoint, double nearestNanos, double rangeNanos) {
+        System.out.printf("%-12s bytes/point = %7.2f   nearest = %9.1f ns   range = %9.1f ns%n",
+                tree, bytesPerPoint, nearestNanos, rangeNanos);
+    }
+
+    public static void main(String[] args) throws InterruptedException, IOException {
+        String mode = args[0];
+        int n = Integer.parseInt(args[1]);
+        int queries = Integer.parseInt(args[2]);
+        long seed = args.length > 3 ? Long.parseLong(args[3]) : System.nanoTime();
+        if (mode.equals("flat")) flat(n, queries, seed);
+        else if (mode.equals("build")) build(n, queries, seed);
+        else if (mode.equals("range")) range(n, queries, seed);
+        else if (mode.equals("stress")) stress(n, seed);
+        else if (mode.equals("concurrent")) concurrent(n, queries, seed);
+        else if (mode.equals("batch")) batch(n, queries, seed);
+        else if (mode.equals("alloc")) alloc(n, queries, seed);
+        else if (mode.equals("snapshot")) snapshot(n, queries, seed);
+        else if (mode.equals("dimensions")) dimensions(n, queries, seed);
+        else if (mode.equals("bucket")) bucket(n, queries, seed);
+        else if (mode.equals("grid")) grid(n, queries, seed);
+        else if (mode.equals("aggregate")) aggregate(n, queries, seed);
+        else throw new IllegalArgumentException("unknown mode " + mode);
+    }
+}
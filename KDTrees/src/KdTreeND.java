@@ -0,0 +1,311 @@
+import java.util.Arrays;
+
+/**
+ * Immutable k-d tree over points with any number of dimensions, given as double[] coordinates.
+ *
+ * Like FlatKdTree it has no node objects: the points are permuted so that every range [lo, hi) of positions is a
+ * subtree whose root is the median position (lo + hi) / 2, with the points not greater along its splitting axis
+ * on the left and the points not smaller on the right. The coordinates are stored in that order in one double[]
+ * (d per point), along with each node's splitting axis and the index of its point in the input array, which is
+ * what the queries return. Splits cycle through the axes or go along the axis of greatest spread of the
+ * subtree's points.
+ *
+ * There is no fixed bounding box: the root's cell is the whole space, and a node's cell is narrowed only by the
+ * splits above it, so the points can have any coordinates.
+ */
+public class KdTreeND {
+
+    /**
+     * How a node chooses its splitting axis.
+     */
+    public enum Split {
+        CYCLE,      // axis depth % d
+        MAX_SPREAD  // the axis along which the subtree's points have the largest max - min
+    }
+
+    private final int d; // dimension
+    private final int n; // number of points
+    private final double[] coords; // coordinates of the point at position i are coords[i * d, (i + 1) * d)
+    private final int[] index; // index in the input of the point at position i
+    private final byte[] axis; // splitting axis of the node at position i
+
+    /**
+     * Builds the tree over points, which must all have the same dimension d (1 to 127).
+     * An empty tree has dimension 0 and takes query points of any dimension.
+     * Equal points are all kept, under their own indices.
+     * Throws IllegalArgumentException if points or one of them is null, or their dimensions differ.
+     */
+    public KdTreeND(double[][] points, Split split) {
+        if (points == null || split == null) throw new IllegalArgumentException("argument to constructor is null");
+        this.n = points.length;
+        this.d = this.n == 0 ? 0 : points[0] == null ? 0 : points[0].length;
+        if ((this.d < 1 && this.n > 0) || this.d > Byte.MAX_VALUE) throw new IllegalArgumentException("invalid dimension " + this.d);
+        for (double[] p : points) {
+            if (p == null || p.length != this.d) throw new IllegalArgumentException("points must all have dimension " + this.d);
+        }
+        this.index = new int[this.n];
+        for (int i = 0; i < this.n; i++) this.index[i] = i;
+        this.axis = new byte[this.n];
+        this.build(points, 0, this.n, 0, split);
+
+        this.coords = new double[this.n * this.d];
+        for (int i = 0; i < this.n; i++) System.arraycopy(points[this.index[i]], 0, this.coords, i * this.d, this.d);
+    }
+
+    // arranges positions [lo, hi) as a subtree at the given depth
+    private void build(double[][] points, int lo, int hi, int depth, Split split) {
+        if (lo >= hi) return;
+        int mid = (lo + hi) >>> 1;
+        int ax = split == Split.CYCLE ? depth % this.d : this.widestAxis(points, lo, hi);
+        this.select(points, lo, hi - 1, mid, ax);
+        this.axis[mid] = (byte) ax;
+        this.build(points, lo, mid, depth + 1, split);
+        this.build(points, mid + 1, hi, depth + 1, split);
+    }
+
+    // the axis along which the points at positions [lo, hi) have the largest spread
+    private int widestAxis(double[][] points, int lo, int hi) {
+        int widest = 0;
+        double widestSpread = -1.0;
+        for (int ax = 0; ax < this.d; ax++) {
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            for (int i = lo; i < hi; i++) {
+                double c = points[this.index[i]][ax];
+                if (c < min) min = c;
+                if (c > max) max = c;
+            }
+            if (max - min > widestSpread) {
+                widest = ax;
+                widestSpread = max - min;
+            }
+        }
+        return widest;
+    }
+
+    /**
+     * Rearranges positions [lo..hi] so that position k holds the point it would if they were sorted along ax,
+     * with no greater coordinate before it and no smaller one after it.
+     */
+    private void select(double[][] points, int lo, int hi, int k, int ax) {
+        int[] index = this.index;
+        while (lo < hi) {
+            // median of three pivot, moved to lo
+            int mid = (lo + hi) >>> 1;
+            if (points[index[mid]][ax] < points[index[lo]][ax]) swap(index, mid, lo);
+            if (points[index[hi]][ax] < points[index[lo]][ax]) swap(index, hi, lo);
+            if (points[index[hi]][ax] < points[index[mid]][ax]) swap(index, hi, mid);
+            swap(index, lo, mid);
+            double pivot = points[index[lo]][ax];
+
+            int i = lo;
+            int j = hi + 1;
+            while (true) {
+                while (points[index[++i]][ax] < pivot) if (i == hi) break;
+                while (pivot < points[index[--j]][ax]) if (j == lo) break;
+                if (i >= j) break;
+                swap(index, i, j);
+            }
+            swap(index, lo, j);
+            if (j > k) hi = j - 1;
+            else if (j < k) lo = j + 1;
+            else return;
+        }
+    }
+
+    private static void swap(int[] a, int i, int j) {
+        int t = a[i];
+        a[i] = a[j];
+        a[j] = t;
+    }
+
+    // number of points
+    public int size() {
+        return this.n;
+    }
+
+    public boolean isEmpty() {
+        return this.n == 0;
+    }
+
+    // dimension of the points, 0 if there are none
+    public int dimension() {
+        return this.d;
+    }
+
+    private void validate(double[] q, String name) {
+        if (q == null) throw new IllegalArgumentException("argument to " + name + "() is null");
+        if (q.length != this.d && this.n > 0) throw new IllegalArgumentException("dimension " + q.length + " instead of " + this.d);
+    }
+
+    /**
+     * Indices of the points inside the box [min, max] (boundary included), in no particular order.
+     * A subtree is skipped when the box is entirely on the other side of its parent's split.
+     */
+    public int[] range(double[] min, double[] max) {
+        this.validate(min, "range");
+        this.validate(max, "range");
+        Found found = new Found();
+        this.range(0, this.n, min, max, found);
+        return Arrays.copyOf(found.indices, found.count);
+    }
+
+    // collects the indices of the points in the box found in the subtree [lo, hi)
+    private void range(int lo, int hi, double[] min, double[] max, Found found) {
+        if (lo >= hi) return;
+        int mid = (lo + hi) >>> 1;
+        int offset = mid * this.d;
+        boolean inside = true;
+        for (int k = 0; k < this.d && inside; k++) {
+            double c = this.coords[offset + k];
+            inside = min[k] <= c && c <= max[k];
+        }
+        if (inside) found.add(this.index[mid]);
+        int ax = this.axis[mid];
+        double split = this.coords[offset + ax];
+        if (min[ax] <= split) this.range(lo, mid, min, max, found);
+        if (max[ax] >= split) this.range(mid + 1, hi, min, max, found);
+    }
+
+    // growable array of point indices
+    private static class Found {
+        private int[] indices = new int[16];
+        private int count = 0;
+
+        void add(int index) {
+            if (this.count == this.indices.length) this.indices = Arrays.copyOf(this.indices, 2 * this.count);
+            this.indices[this.count++] = index;
+        }
+    }
+
+    /**
+     * Index of a point nearest to q (in Euclidean distance), or -1 if the tree is empty.
+     */
+    public int nearest(double[] q) {
+        this.validate(q, "nearest");
+        if (this.n == 0) return -1;
+        Neighbors best = new Neighbors(1);
+        this.nearest(0, this.n, q, 0.0, new double[this.d], best);
+        return best.indices[0];
+    }
+
+    /**
+     * Indices of the k points nearest to q, nearest first; all of them if there are fewer than k points.
+     * Throws IllegalArgumentException if k < 1.
+     */
+    public int[] nearest(double[] q, int k) {
+        this.validate(q, "nearest");
+        if (k < 1) throw new IllegalArgumentException("k must be positive: " + k);
+        if (this.n == 0) return new int[0];
+        Neighbors best = new Neighbors(Math.min(k, this.n));
+        this.nearest(0, this.n, q, 0.0, new double[this.d], best);
+        return best.sorted();
+    }
+
+    /**
+     * Searches the subtree [lo, hi), whose cell is at squared distance cellDistance from q, offsets[k] being the
+     * distance from q to the cell along axis k. The side of each split q is on is searched first, and the other
+     * side only if its cell, which differs along the split axis only, is closer than the best points so far.
+     */
+    private void nearest(int lo, int hi, double[] q, double cellDistance, double[] offsets, Neighbors best) {
+        if (lo >= hi || cellDistance >= best.bound()) return;
+        int mid = (lo + hi) >>> 1;
+        int offset = mid * this.d;
+        double distance = 0.0;
+        for (int k = 0; k < this.d; k++) {
+            double diff = this.coords[offset + k] - q[k];
+            distance += diff * diff;
+        }
+        best.offer(this.index[mid], distance);
+
+        int ax = this.axis[mid];
+        double diff = q[ax] - this.coords[offset + ax];
+        double old = offsets[ax];
+        if (diff <= 0) this.nearest(lo, mid, q, cellDistance, offsets, best);
+        else this.nearest(mid + 1, hi, q, cellDistance, offsets, best);
+        offsets[ax] = diff;
+        double farDistance = cellDistance - old * old + diff * diff;
+        if (diff <= 0) this.nearest(mid + 1, hi, q, farDistance, offsets, best);
+        else this.nearest(lo, mid, q, farDistance, offsets, best);
+        offsets[ax] = old;
+    }
+
+    /**
+     * Max-heap of at most capacity point indices keyed by their squared distance to the query point.
+     */
+    private static class Neighbors {
+        private final int[] indices;
+        private final double[] distances;
+        private int size = 0;
+
+        Neighbors(int capacity) {
+            this.indices = new int[capacity];
+            this.distances = new double[capacity];
+        }
+
+        // squared distance a point must beat to get in, the k-th best once the heap is full
+        double bound() {
+            return this.size < this.indices.length ? Double.POSITIVE_INFINITY : this.distances[0];
+        }
+
+        void offer(int index, double distance) {
+            if (this.size < this.indices.length) {
+                // sift up from the new leaf
+                int i = this.size++;
+                while (i > 0 && this.distances[(i - 1) / 2] < distance) {
+                    this.indices[i] = this.indices[(i - 1) / 2];
+                    this.distances[i] = this.distances[(i - 1) / 2];
+                    i = (i - 1) / 2;
+                }
+                this.indices[i] = index;
+                this.distances[i] = distance;
+            } else if (distance < this.distances[0]) {
+                this.replaceMax(index, distance, this.size);
+            }
+        }
+
+        // puts index in place of the farthest point and sifts it down in the heap of the first size entries
+        private void replaceMax(int index, double distance, int size) {
+            int i = 0;
+            while (2 * i + 1 < size) {
+                int child = 2 * i + 1;
+                if (child + 1 < size && this.distances[child + 1] > this.distances[child]) child++;
+                if (this.distances[child] <= distance) break;
+                this.indices[i] = this.indices[child];
+                this.distances[i] = this.distances[child];
+                i = child;
+            }
+            this.indices[i] = index;
+            this.distances[i] = distance;
+        }
+
+        // the indices nearest first; heapsorts the backing arrays in place
+        int[] sorted() {
+            for (int end = this.size - 1; end > 0; end--) {
+                int farthest = this.indices[0];
+                double distance = this.distances[0];
+                this.replaceMax(this.indices[end], this.distances[end], end);
+                this.indices[end] = farthest;
+                this.distances[end] = distance;
+            }
+            return this.indices;
+        }
+    }
+
+    // unit testing of the methods (optional)
+    public static void main(String[] args) {
+        double[][] points = {
+                { 0.0, 0.0, 0.0 }, { 1.0, 2.0, 3.0 }, { -4.0, 5.0, 0.5 }, { 2.0, 2.0, 2.0 }, { 1.0, 2.0, 3.0 }
+        };
+        for (Split split : Split.values()) {
+            KdTreeND tree = new KdTreeND(points, split);
+            assert tree.size() == 5 && tree.dimension() == 3;
+            assert tree.nearest(new double[] { -3.0, 4.0, 0.0 }) == 2;
+            int[] nearest = tree.nearest(new double[] { 2.0, 2.0, 2.5 }, 2);
+            assert nearest.length == 2 && nearest[0] == 3;
+            int[] inside = tree.range(new double[] { 0.5, 1.5, 2.5 }, new double[] { 1.5, 2.5, 3.5 });
+            Arrays.sort(inside);
+            assert Arrays.equals(inside, new int[] { 1, 4 });
+        }
+    }
+}
@@ -0,0 +1,192 @@
+import edu.princeton.cs.algs4.Point2D;
+import edu.princeton.cs.algs4.RectHV;
+import edu.princeton.cs.algs4.StdDraw;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Set of points in the unit square with the PointSET API, indexed by a uniform grid of side x side cells.
+ *
+ * The points are kept in parallel double[] arrays in insertion order, and each cell is a linked list of indices
+ * into them: heads[cell] is the first point in the cell and next[i] the one after point i, with -1 ending a list.
+ * When there are more than LOAD points per cell on average the grid side is doubled and the lists rebuilt, so for
+ * uniform points a cell holds O(1) of them.
+ *
+ * range() visits only the cells overlapping the rectangle. nearest() searches the cell of the query point and
+ * then rings of cells around it, outward, and stops once the next ring is farther than the best point so far.
+ */
+public class PointGrid {
+    private static final int LOAD = 2;            // average points per cell before the grid grows
+    private static final int INITIAL_SIDE = 8;
+
+    private double[] xs = new double[16];
+    private double[] ys = new double[16];
+    private int[] next = new int[16];
+    private int[] heads;
+    private int side;
+    private int size = 0;
+
+    // construct an empty set of points
+    public PointGrid() {
+        this.side = INITIAL_SIDE;
+        this.heads = new int[INITIAL_SIDE * INITIAL_SIDE];
+        Arrays.fill(this.heads, -1);
+    }
+
+    // is the set empty?
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    // number of points in the set
+    public int size() {
+        return this.size;
+    }
+
+    // column (or row) of the cells holding coordinate c, clamped to the grid
+    private int cell(double c) {
+        int cell = (int) (c * this.side);
+        if (cell < 0) return 0;
+        return Math.min(cell, this.side - 1);
+    }
+
+    /**
+     * Adds the point to the set if it is not already in it.
+     * Throws IllegalArgumentException if p is null or outside the unit square.
+     */
+    public void insert(Point2D p) {
+        if (p == null) throw new IllegalArgumentException("argument to insert() is null");
+        double x = p.x();
+        double y = p.y();
+        if (!(0.0 <= x && x <= 1.0 && 0.0 <= y && y <= 1.0))
+            throw new IllegalArgumentException(p + " is outside the unit square");
+        int cell = this.cell(y) * this.side + this.cell(x);
+        if (this.contains(cell, x, y)) return;
+
+        if (this.size == this.xs.length) {
+            this.xs = Arrays.copyOf(this.xs, 2 * this.size);
+            this.ys = Arrays.copyOf(this.ys, 2 * this.size);
+            this.next = Arrays.copyOf(this.next, 2 * this.size);
+        }
+        this.xs[this.size] = x;
+        this.ys[this.size] = y;
+        this.next[this.size] = this.heads[cell];
+        this.heads[cell] = this.size;
+        this.size++;
+        if (this.size > LOAD * this.heads.length) this.resize(2 * this.side);
+    }
+
+    // rebuilds the cell lists for a grid of side x side cells
+    private void resize(int side) {
+        this.side = side;
+        this.heads = new int[side * side];
+        Arrays.fill(this.heads, -1);
+        for (int i = 0; i < this.size; i++) {
+            int cell = this.cell(this.ys[i]) * side + this.cell(this.xs[i]);
+            this.next[i] = this.heads[cell];
+            this.heads[cell] = i;
+        }
+    }
+
+    // does the set contain point p?
+    public boolean contains(Point2D p) {
+        if (p == null) throw new IllegalArgumentException("argument to contains() is null");
+        double x = p.x();
+        double y = p.y();
+        if (!(0.0 <= x && x <= 1.0 && 0.0 <= y && y <= 1.0)) return false;
+        return this.contains(this.cell(y) * this.side + this.cell(x), x, y);
+    }
+
+    private boolean contains(int cell, double x, double y) {
+        for (int i = this.heads[cell]; i >= 0; i = this.next[i]) {
+            if (this.xs[i] == x && this.ys[i] == y) return true;
+        }
+        return false;
+    }
+
+    // draw all points to standard draw
+    public void draw() {
+        for (int i = 0; i < this.size; i++) StdDraw.point(this.xs[i], this.ys[i]);
+    }
+
+    // all points that are inside the rectangle (or on the boundary)
+    public Iterable<Point2D> range(RectHV rect) {
+        if (rect == null) throw new IllegalArgumentException("argument to range() is null");
+        ArrayList<Point2D> range = new ArrayList<>();
+        double xmin = rect.xmin();
+        double ymin = rect.ymin();
+        double xmax = rect.xmax();
+        double ymax = rect.ymax();
+        if (xmax < 0.0 || xmin > 1.0 || ymax < 0.0 || ymin > 1.0) return range;
+        int colMax = this.cell(xmax);
+        int rowMax = this.cell(ymax);
+        for (int row = this.cell(ymin); row <= rowMax; row++) {
+            for (int col = this.cell(xmin); col <= colMax; col++) {
+                for (int i = this.heads[row * this.side + col]; i >= 0; i = this.next[i]) {
+                    double x = this.xs[i];
+                    double y = this.ys[i];
+                    if (xmin <= x && x <= xmax && ymin <= y && y <= ymax) range.add(new Point2D(x, y));
+                }
+            }
+        }
+        return range;
+    }
+
+    // a nearest neighbor in the set to point p; null if the set is empty
+    public Point2D nearest(Point2D p) {
+        if (p == null) throw new IllegalArgumentException("argument to nearest() is null");
+        if (this.isEmpty()) return null;
+        double x = p.x();
+        double y = p.y();
+        int col = this.cell(x);
+        int row = this.cell(y);
+        double width = 1.0 / this.side;
+        int best = -1;
+        double bestDistance = Double.POSITIVE_INFINITY;
+        for (int ring = 0; ring < this.side; ring++) {
+            // every cell of this ring is outside the block of cells within ring - 1 of (col, row), so it is at
+            // least as far from p as the nearest edge of that block
+            double block = Math.min(Math.min(x - (col - ring + 1) * width, (col + ring) * width - x),
+                                    Math.min(y - (row - ring + 1) * width, (row + ring) * width - y));
+            if (ring > 0 && block > 0 && block * block >= bestDistance) break;
+            for (int r = Math.max(row - ring, 0); r <= Math.min(row + ring, this.side - 1); r++) {
+                // whole rows at the top and bottom of the ring, only the two ends of the rows in between
+                boolean edge = r == row - ring || r == row + ring;
+                int step = edge ? 1 : Math.max(2 * ring, 1);
+                for (int c = col - ring; c <= col + ring; c += step) {
+                    if (c < 0 || c >= this.side) continue;
+                    for (int i = this.heads[r * this.side + c]; i >= 0; i = this.next[i]) {
+                        double dx = this.xs[i] - x;
+                        double dy = this.ys[i] - y;
+                        double distance = dx * dx + dy * dy;
+                        if (distance < bestDistance) {
+                            best = i;
+                            bestDistance = distance;
+                        }
+                    }
+                }
+            }
+        }
+        return new Point2D(this.xs[best], this.ys[best]);
+    }
+
+    // unit testing of the methods (optional)
+    public static void main(String[] args) {
+        PointGrid grid = new PointGrid();
+        assert grid.isEmpty() && grid.nearest(new Point2D(0.5, 0.5)) == null;
+        grid.insert(new Point2D(0.7, 0.2));
+        grid.insert(new Point2D(0.5, 0.4));
+        grid.insert(new Point2D(0.2, 0.3));
+        grid.insert(new Point2D(0.4, 0.7));
+        grid.insert(new Point2D(0.9, 0.6));
+        grid.insert(new Point2D(0.5, 0.4));
+        assert grid.size() == 5;
+        assert grid.contains(new Point2D(0.4, 0.7));
+        assert !grid.contains(new Point2D(0.4, 0.2));
+        assert grid.nearest(new Point2D(0.8, 0.1)).equals(new Point2D(0.7, 0.2));
+        int count = 0;
+        for (Point2D p : grid.range(new RectHV(0.3, 0.3, 1.0, 1.0))) count++;
+        assert count == 3;
+    }
+}
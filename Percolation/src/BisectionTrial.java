@@ -0,0 +1,104 @@
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Percolation trial for very large grids that never builds a union-find.
+ *
+ * Every site gets a random open time, quantized to an unsigned 16 bit level and kept in a short[]
+ * (2 bytes per site). A site is open at cutoff level L if its time is below L, so whether the grid
+ * percolates is monotone in L and the critical level can be found by bisecting L with a flood fill
+ * from the top row. The threshold is the fraction of sites open at the critical level, taking the
+ * midpoint of the sites tied at the last level, which is typically within 2^-17 of the incremental estimate.
+ *
+ * The buffers are reused across trials, so a worker needs about 2.1 bytes per site plus the flood fill stack.
+ */
+class BisectionTrial {
+    private static final int LEVELS = 1 << 16; // number of distinct open times
+
+    private final int n;
+    private final short[] times; // open time level of each site, read as unsigned
+    private final long[] visited; // flood fill bitset
+    private int[] stack = new int[64]; // flood fill stack of site indices
+
+    BisectionTrial(int n) {
+        if (n <= 0 || n > 46340) throw new IllegalArgumentException(String.valueOf(n));
+        this.n = n;
+        this.times = new short[n * n];
+        this.visited = new long[(n * n + 63) >>> 6];
+    }
+
+    // bytes held by the buffers, including the flood fill stack at its current size
+    long bytes() {
+        return 2L * this.times.length + 8L * this.visited.length + 4L * this.stack.length;
+    }
+
+    /**
+     * Runs one trial with the given stream and returns the estimated percolation threshold.
+     */
+    double run(SplittableRandom random) {
+        int gridSize = this.times.length;
+        for (int i = 0; i < gridSize; i += 4) {
+            long bits = random.nextLong();
+            for (int j = i; j < Math.min(i + 4, gridSize); j++) {
+                this.times[j] = (short) bits;
+                bits >>>= 16;
+            }
+        }
+
+        // invariant: the grid does not percolate at level lo and percolates at level hi
+        int lo = 0;
+        int hi = LEVELS;
+        while (hi - lo > 1) {
+            int mid = (lo + hi) >>> 1;
+            if (this.percolates(mid)) hi = mid;
+            else lo = mid;
+        }
+
+        // the critical site has level lo; count the sites below it and the sites tied at it
+        long below = 0;
+        long tied = 0;
+        for (int i = 0; i < gridSize; i++) {
+            int time = this.times[i] & 0xFFFF;
+            if (time < lo) below++;
+            else if (time == lo) tied++;
+        }
+        return (below + (tied + 1) / 2.0) / gridSize;
+    }
+
+    // does the grid percolate when the sites with a time below level are open?
+    private boolean percolates(int level) {
+        Arrays.fill(this.visited, 0L);
+        int size = 0;
+        for (int col = 0; col < this.n; col++) {
+            if ((this.times[col] & 0xFFFF) < level) {
+                this.visited[col >>> 6] |= 1L << col;
+                size = this.push(size, col);
+            }
+        }
+        int lastRow = this.n * (this.n - 1);
+        while (size > 0) {
+            int index = this.stack[--size];
+            if (index >= lastRow) return true;
+            int col = index % this.n;
+            if (index >= this.n) size = this.visit(size, index - this.n, level);
+            if (col < this.n - 1) size = this.visit(size, index + 1, level);
+            size = this.visit(size, index + this.n, level);
+            if (col > 0) size = this.visit(size, index - 1, level);
+        }
+        return false;
+    }
+
+    // pushes index if it is open at level and not visited yet, returning the new stack size
+    private int visit(int size, int index, int level) {
+        long bit = 1L << index;
+        if ((this.visited[index >>> 6] & bit) != 0 || (this.times[index] & 0xFFFF) >= level) return size;
+        this.visited[index >>> 6] |= bit;
+        return this.push(size, index);
+    }
+
+    private int push(int size, int index) {
+        if (size == this.stack.length) this.stack = Arrays.copyOf(this.stack, 2 * size);
+        this.stack[size] = index;
+        return size + 1;
+    }
+}
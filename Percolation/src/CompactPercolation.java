@@ -0,0 +1,142 @@
+/*---------------------------------------------------------
+ *  Author:        John Suh
+
+ *---------------------------------------------------------*/
+
+/**
+ * Memory-lean variant of Percolation with the same public API.
+ *
+ * Instead of the component sizes, cluster histogram and boolean[] of Percolation (about 14 bytes per site),
+ * it keeps a single union-find over int[] parents with path halving, one status byte per site and
+ * the open state in a long[] bitset, for about 5.1 bytes per site. There are no virtual sites:
+ * the status byte of a root records whether its component touches the top row and the bottom row,
+ * so backwash cannot happen and percolation is detected when a merge produces a root with both flags.
+ */
+public class CompactPercolation {
+    private static final int TOP = 1;         // component contains an open site of the top row
+    private static final int BOTTOM = 2;      // component contains an open site of the bottom row
+    private static final int RANK_SHIFT = 2;  // the remaining bits of a root's status hold its rank
+
+    private final int n; // n by n grid n
+    private final int[] parent; // union-find parent links, a root is its own parent
+    private final byte[] status; // TOP / BOTTOM flags and rank, only meaningful for roots
+    private final long[] open; // open state bitset, one bit per site
+    private int countOpen = 0; // number of open squares
+    private boolean percolates = false;
+
+    public CompactPercolation(int n) {
+        if (n <= 0 || n > 46340) throw new IllegalArgumentException(String.valueOf(n));
+        this.n = n;
+        int gridSize = n * n;
+        this.parent = new int[gridSize];
+        for (int i = 0; i < gridSize; i++) this.parent[i] = i;
+        this.status = new byte[gridSize];
+        this.open = new long[(gridSize + 63) >>> 6];
+    }
+
+    private boolean isValidSite(int row, int col) {
+        // Return True for row and col that are between indexes 0 ~ n, n exclusive
+        return 0 < row && 0 < col && row <= this.n && col <= this.n;
+    }
+
+    private int getIndex(int row, int col) {
+        // Returns the index that corresponds to the (row, col)
+        return ((row - 1) * this.n) + col - 1;
+    }
+
+    private boolean isOpen(int index) {
+        return (this.open[index >>> 6] & (1L << index)) != 0;
+    }
+
+    private int find(int index) {
+        // path halving: point every other site on the path to its grandparent
+        while (this.parent[index] != index) {
+            this.parent[index] = this.parent[this.parent[index]];
+            index = this.parent[index];
+        }
+        return index;
+    }
+
+    private void union(int p, int q) {
+        int rootP = this.find(p);
+        int rootQ = this.find(q);
+        if (rootP == rootQ) return;
+
+        int rankP = this.status[rootP] >>> RANK_SHIFT;
+        int rankQ = this.status[rootQ] >>> RANK_SHIFT;
+        int flags = (this.status[rootP] | this.status[rootQ]) & (TOP | BOTTOM);
+        if (rankP < rankQ) {
+            this.parent[rootP] = rootQ;
+            this.status[rootQ] = (byte) ((rankQ << RANK_SHIFT) | flags);
+        } else {
+            this.parent[rootQ] = rootP;
+            if (rankP == rankQ) rankP++;
+            this.status[rootP] = (byte) ((rankP << RANK_SHIFT) | flags);
+        }
+        if (flags == (TOP | BOTTOM)) this.percolates = true;
+    }
+
+    /**
+     * Opens the site for the given row and col.
+     *
+     * Throws IllegalArgumentException if it is not a valid site.
+     */
+    public void open(int row, int col) {
+        if (!this.isValidSite(row, col)) throw new IllegalArgumentException(row + " " + col);
+        int index = this.getIndex(row, col);
+        if (this.isOpen(index)) return;
+
+        this.open[index >>> 6] |= 1L << index;
+        this.countOpen++;
+        int flags = 0;
+        if (row == 1) flags |= TOP;
+        if (row == this.n) flags |= BOTTOM;
+        this.status[index] |= (byte) flags;
+        if (flags == (TOP | BOTTOM)) this.percolates = true; // Edge case n == 1
+
+        if (row > 1 && this.isOpen(index - this.n)) this.union(index, index - this.n);
+        if (row < this.n && this.isOpen(index + this.n)) this.union(index, index + this.n);
+        if (col > 1 && this.isOpen(index - 1)) this.union(index, index - 1);
+        if (col < this.n && this.isOpen(index + 1)) this.union(index, index + 1);
+    }
+
+    public boolean isOpen(int row, int col) {
+        if (!this.isValidSite(row, col)) throw new IllegalArgumentException(row + " " + col);
+        return this.isOpen(this.getIndex(row, col));
+    }
+
+    public boolean isFull(int row, int col) {
+        if (!this.isValidSite(row, col)) throw new IllegalArgumentException(row + " " + col);
+        int index = this.getIndex(row, col);
+        return this.isOpen(index) && (this.status[this.find(index)] & TOP) != 0;
+    }
+
+    public int numberOfOpenSites() {
+        return this.countOpen;
+    }
+
+    public boolean percolates() {
+        return this.percolates;
+    }
+
+    public static void main(String[] args) {
+        int n = 3;
+        CompactPercolation percolation = new CompactPercolation(n);
+        assert percolation.numberOfOpenSites() == 0;
+        assert !percolation.percolates();
+
+        percolation.open(1, 1);
+        assert percolation.isOpen(1, 1);
+        assert percolation.isFull(1, 1);
+        percolation.open(3, 3);
+        assert percolation.isOpen(3, 3);
+        assert !percolation.isFull(3, 3);
+
+        percolation.open(2, 1);
+        percolation.open(3, 1);
+        assert percolation.percolates();
+        assert percolation.numberOfOpenSites() == 4;
+        // no backwash: (3, 3) touches the bottom but is not connected to the top
+        assert !percolation.isFull(3, 3);
+    }
+}
@@ -0,0 +1,220 @@
+/*---------------------------------------------------------
+ *  Author:        John Suh
+
+ *---------------------------------------------------------*/
+
+/**
+ * Lattice of sites for LatticePercolation, with a top and a bottom boundary.
+ *
+ * A lattice is described by a pluggable Neighbors function, but that function is only called while the
+ * lattice is constructed: the neighbor lists are stored once in compressed sparse row form (first / adjacent),
+ * and the bonds are numbered in the order they are found. LatticePercolation reads those arrays directly,
+ * so its open() is the same monomorphic loop for every lattice and no neighbor function is called per open.
+ *
+ * The factories build n-wide square, triangular and honeycomb lattices and n-by-n-by-n cubic lattices,
+ * each with the top boundary on the first row (or layer) and the bottom boundary on the last.
+ */
+public final class Lattice {
+    static final byte TOP = 1;     // site is on the top boundary
+    static final byte BOTTOM = 2;  // site is on the bottom boundary
+    private static final long MAX_EDGES = Integer.MAX_VALUE - 8; // longest int[] the VM allocates
+
+    /**
+     * Neighbor function of a lattice.
+     */
+    public interface Neighbors {
+
+        // writes the neighbors of site into neighbors and returns how many there are
+        int of(int site, int[] neighbors);
+    }
+
+    /**
+     * Boundary function of a lattice.
+     */
+    public interface Boundary {
+
+        // is site on this boundary?
+        boolean contains(int site);
+    }
+
+    private final String name;
+    final int sites;          // number of sites
+    final int[] first;        // neighbors of site i are adjacent[first[i]] ~ adjacent[first[i + 1] - 1]
+    final int[] adjacent;     // concatenated neighbor lists
+    final byte[] boundary;    // TOP / BOTTOM flags of each site
+    final int[] bondSites;    // bond b joins bondSites[2b] and bondSites[2b + 1]
+
+    /**
+     * Builds a lattice of the given number of sites, none of which has more than maxDegree neighbors.
+     * The neighbor function is called twice per site, once to count the neighbors and once to store them.
+     * Throws IllegalArgumentException if a neighbor is out of range, the neighbor relation is not symmetric,
+     * or there are more neighbors in all than an int[] can hold.
+     */
+    public Lattice(String name, int sites, int maxDegree, Neighbors neighbors, Boundary top, Boundary bottom) {
+        if (sites <= 0 || maxDegree < 0 || neighbors == null || top == null || bottom == null)
+            throw new IllegalArgumentException();
+        this.name = name;
+        this.sites = sites;
+        this.first = new int[sites + 1];
+        this.boundary = new byte[sites];
+
+        // first pass: count the neighbors of every site, so the arrays are allocated once at their exact size
+        int[] buffer = new int[maxDegree];
+        long edges = 0;
+        long bonds = 0;
+        for (int site = 0; site < sites; site++) {
+            int degree = neighbors.of(site, buffer);
+            for (int k = 0; k < degree; k++) {
+                int neighbor = buffer[k];
+                if (neighbor < 0 || neighbor >= sites || neighbor == site)
+                    throw new IllegalArgumentException("invalid neighbor " + neighbor + " of site " + site);
+                if (site < neighbor) bonds++;
+            }
+            edges += degree;
+            if (top.contains(site)) this.boundary[site] |= TOP;
+            if (bottom.contains(site)) this.boundary[site] |= BOTTOM;
+        }
+        if (edges > MAX_EDGES) throw new IllegalArgumentException("too many neighbors: " + edges);
+        if (edges != 2 * bonds) throw new IllegalArgumentException("neighbor relation is not symmetric");
+
+        // second pass: store the neighbor lists and number the bonds
+        this.adjacent = new int[(int) edges];
+        this.bondSites = new int[(int) edges];
+        int edge = 0;
+        int end = 0;
+        for (int site = 0; site < sites; site++) {
+            this.first[site] = edge;
+            int degree = neighbors.of(site, buffer);
+            for (int k = 0; k < degree; k++) {
+                int neighbor = buffer[k];
+                this.adjacent[edge++] = neighbor;
+                if (site < neighbor) {
+                    this.bondSites[end++] = site;
+                    this.bondSites[end++] = neighbor;
+                }
+            }
+        }
+        this.first[sites] = edge;
+
+        // every site must also be in the neighbor list of each of its neighbors
+        for (int site = 0; site < sites; site++) {
+            for (int k = this.first[site]; k < this.first[site + 1]; k++) {
+                if (!this.isNeighbor(this.adjacent[k], site))
+                    throw new IllegalArgumentException("site " + this.adjacent[k] + " is a neighbor of " + site
+                                                       + " but not the other way round");
+            }
+        }
+    }
+
+    // is q in the neighbor list of p?
+    private boolean isNeighbor(int p, int q) {
+        for (int k = this.first[p]; k < this.first[p + 1]; k++) {
+            if (this.adjacent[k] == q) return true;
+        }
+        return false;
+    }
+
+    // number of sites
+    public int sites() {
+        return this.sites;
+    }
+
+    // number of bonds (pairs of neighboring sites)
+    public int bonds() {
+        return this.bondSites.length / 2;
+    }
+
+    @Override
+    public String toString() {
+        return this.name;
+    }
+
+    // checks that n^dimension sites with up to maxDegree neighbors each fit in the int-indexed arrays
+    private static void validate(int n, int dimension, int maxDegree) {
+        if (n <= 0) throw new IllegalArgumentException(String.valueOf(n));
+        long sites = 1;
+        for (int k = 0; k < dimension; k++) {
+            sites *= n;
+            if (sites * maxDegree > MAX_EDGES) throw new IllegalArgumentException("lattice of side " + n + " is too large");
+        }
+    }
+
+    /**
+     * n-by-n square lattice, each site connected to the sites above, below, left and right of it.
+     * Site (row, col) is (row - 1) * n + col - 1, as in Percolation.
+     */
+    public static Lattice square(int n) {
+        validate(n, 2, 4);
+        return new Lattice("square " + n, n * n, 4, (site, neighbors) -> {
+            int row = site / n;
+            int col = site % n;
+            int degree = 0;
+            if (row > 0) neighbors[degree++] = site - n;
+            if (col < n - 1) neighbors[degree++] = site + 1;
+            if (row < n - 1) neighbors[degree++] = site + n;
+            if (col > 0) neighbors[degree++] = site - 1;
+            return degree;
+        }, site -> site < n, site -> site >= n * (n - 1));
+    }
+
+    /**
+     * n-by-n triangular lattice, drawn as the square lattice plus the (row - 1, col + 1) / (row + 1, col - 1)
+     * diagonal, so every interior site has 6 neighbors.
+     */
+    public static Lattice triangular(int n) {
+        validate(n, 2, 6);
+        return new Lattice("triangular " + n, n * n, 6, (site, neighbors) -> {
+            int row = site / n;
+            int col = site % n;
+            int degree = 0;
+            if (row > 0) neighbors[degree++] = site - n;
+            if (row > 0 && col < n - 1) neighbors[degree++] = site - n + 1;
+            if (col < n - 1) neighbors[degree++] = site + 1;
+            if (row < n - 1) neighbors[degree++] = site + n;
+            if (row < n - 1 && col > 0) neighbors[degree++] = site + n - 1;
+            if (col > 0) neighbors[degree++] = site - 1;
+            return degree;
+        }, site -> site < n, site -> site >= n * (n - 1));
+    }
+
+    /**
+     * n-by-n hexagonal (honeycomb) lattice, drawn as a brick wall: every site is connected to its left and right
+     * neighbors, and to the site below it when row + col is even or above it when row + col is odd,
+     * so every interior site has 3 neighbors.
+     */
+    public static Lattice honeycomb(int n) {
+        validate(n, 2, 3);
+        return new Lattice("honeycomb " + n, n * n, 3, (site, neighbors) -> {
+            int row = site / n;
+            int col = site % n;
+            int degree = 0;
+            if ((row + col) % 2 == 1 && row > 0) neighbors[degree++] = site - n;
+            if (col < n - 1) neighbors[degree++] = site + 1;
+            if ((row + col) % 2 == 0 && row < n - 1) neighbors[degree++] = site + n;
+            if (col > 0) neighbors[degree++] = site - 1;
+            return degree;
+        }, site -> site < n, site -> site >= n * (n - 1));
+    }
+
+    /**
+     * n-by-n-by-n simple cubic lattice, each site connected to its 6 axis neighbors.
+     * Site (layer, row, col) is (layer * n + row) * n + col, with the top boundary on layer 0.
+     */
+    public static Lattice cubic(int n) {
+        validate(n, 3, 6);
+        int layer = n * n;
+        return new Lattice("cubic " + n, n * layer, 6, (site, neighbors) -> {
+            int z = site / layer;
+            int row = site % layer / n;
+            int col = site % n;
+            int degree = 0;
+            if (z > 0) neighbors[degree++] = site - layer;
+            if (row > 0) neighbors[degree++] = site - n;
+            if (col < n - 1) neighbors[degree++] = site + 1;
+            if (row < n - 1) neighbors[degree++] = site + n;
+            if (col > 0) neighbors[degree++] = site - 1;
+            if (z < n - 1) neighbors[degree++] = site + layer;
+            return degree;
+        }, site -> site < layer, site -> site >= layer * (n - 1));
+    }
+}
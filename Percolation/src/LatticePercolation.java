@@ -0,0 +1,186 @@
+/*---------------------------------------------------------
+ *  Author:        John Suh
+
+ *---------------------------------------------------------*/
+
+import java.util.Arrays;
+
+/**
+ * Site or bond percolation on an arbitrary Lattice.
+ *
+ * The union-find is the one of CompactPercolation: int[] parents with path halving, and a status byte per site
+ * holding the rank and the top / bottom flags of a root, so there are no virtual sites and no backwash.
+ * Neighbors come from the lattice's precomputed arrays, so opening a site or a bond is the same
+ * allocation-free loop whatever the lattice is.
+ *
+ * A system is driven either by openSite (site percolation) or by openBond (bond percolation, where the sites
+ * at both ends of an open bond count as open).
+ */
+public class LatticePercolation {
+    private static final int TOP = Lattice.TOP;
+    private static final int BOTTOM = Lattice.BOTTOM;
+    private static final int RANK_SHIFT = 2;  // the remaining bits of a root's status hold its rank
+
+    private final Lattice lattice;
+    private final int[] parent; // union-find parent links, a root is its own parent
+    private final byte[] status; // TOP / BOTTOM flags and rank, only meaningful for roots
+    private final long[] open; // open state bitset, one bit per site
+    private int countOpen = 0; // number of open sites
+    private int countBonds = 0; // number of bonds opened by openBond
+    private boolean percolates = false;
+
+    public LatticePercolation(Lattice lattice) {
+        if (lattice == null) throw new IllegalArgumentException();
+        this.lattice = lattice;
+        this.parent = new int[lattice.sites];
+        for (int i = 0; i < lattice.sites; i++) this.parent[i] = i;
+        this.status = new byte[lattice.sites];
+        this.open = new long[(lattice.sites + 63) >>> 6];
+    }
+
+    // blocks all sites and bonds again, so that the system can be reused for another trial
+    void reset() {
+        for (int i = 0; i < this.parent.length; i++) this.parent[i] = i;
+        Arrays.fill(this.status, (byte) 0);
+        Arrays.fill(this.open, 0L);
+        this.countOpen = 0;
+        this.countBonds = 0;
+        this.percolates = false;
+    }
+
+    private void validateSite(int site) {
+        if (site < 0 || site >= this.lattice.sites)
+            throw new IllegalArgumentException("site " + site + " is not between 0 and " + (this.lattice.sites - 1));
+    }
+
+    private boolean isOpenSite(int site) {
+        return (this.open[site >>> 6] & (1L << site)) != 0;
+    }
+
+    // marks site open and returns false if it already was
+    private boolean markOpen(int site) {
+        if (this.isOpenSite(site)) return false;
+        this.open[site >>> 6] |= 1L << site;
+        this.countOpen++;
+        this.status[site] |= this.lattice.boundary[site];
+        if (this.lattice.boundary[site] == (TOP | BOTTOM)) this.percolates = true;
+        return true;
+    }
+
+    private int find(int site) {
+        // path halving: point every other site on the path to its grandparent
+        while (this.parent[site] != site) {
+            this.parent[site] = this.parent[this.parent[site]];
+            site = this.parent[site];
+        }
+        return site;
+    }
+
+    private void union(int p, int q) {
+        int rootP = this.find(p);
+        int rootQ = this.find(q);
+        if (rootP == rootQ) return;
+
+        int rankP = this.status[rootP] >>> RANK_SHIFT;
+        int rankQ = this.status[rootQ] >>> RANK_SHIFT;
+        int flags = (this.status[rootP] | this.status[rootQ]) & (TOP | BOTTOM);
+        if (rankP < rankQ) {
+            this.parent[rootP] = rootQ;
+            this.status[rootQ] = (byte) ((rankQ << RANK_SHIFT) | flags);
+        } else {
+            this.parent[rootQ] = rootP;
+            if (rankP == rankQ) rankP++;
+            this.status[rootP] = (byte) ((rankP << RANK_SHIFT) | flags);
+        }
+        if (flags == (TOP | BOTTOM)) this.percolates = true;
+    }
+
+    /**
+     * Opens site and connects it to its open neighbors.
+     *
+     * Throws IllegalArgumentException if it is not a site of the lattice.
+     */
+    public void openSite(int site) {
+        this.validateSite(site);
+        if (!this.markOpen(site)) return;
+        int[] adjacent = this.lattice.adjacent;
+        for (int k = this.lattice.first[site], end = this.lattice.first[site + 1]; k < end; k++) {
+            int neighbor = adjacent[k];
+            if (this.isOpenSite(neighbor)) this.union(site, neighbor);
+        }
+    }
+
+    /**
+     * Opens bond and connects the sites at both of its ends.
+     * Opening the same bond twice counts it twice in numberOfOpenBonds().
+     *
+     * Throws IllegalArgumentException if it is not a bond of the lattice.
+     */
+    public void openBond(int bond) {
+        if (bond < 0 || bond >= this.lattice.bonds())
+            throw new IllegalArgumentException("bond " + bond + " is not between 0 and " + (this.lattice.bonds() - 1));
+        int p = this.lattice.bondSites[2 * bond];
+        int q = this.lattice.bondSites[2 * bond + 1];
+        this.markOpen(p);
+        this.markOpen(q);
+        this.countBonds++;
+        this.union(p, q);
+    }
+
+    public boolean isOpen(int site) {
+        this.validateSite(site);
+        return this.isOpenSite(site);
+    }
+
+    // is site open and connected to an open site on the top boundary?
+    public boolean isFull(int site) {
+        this.validateSite(site);
+        return this.isOpenSite(site) && (this.status[this.find(site)] & TOP) != 0;
+    }
+
+    public int numberOfOpenSites() {
+        return this.countOpen;
+    }
+
+    public int numberOfOpenBonds() {
+        return this.countBonds;
+    }
+
+    public boolean percolates() {
+        return this.percolates;
+    }
+
+    public Lattice lattice() {
+        return this.lattice;
+    }
+
+    public static void main(String[] args) {
+        // the square lattice behaves like Percolation
+        LatticePercolation square = new LatticePercolation(Lattice.square(3));
+        square.openSite(0);
+        square.openSite(8);
+        assert square.isFull(0);
+        assert !square.isFull(8);
+        square.openSite(3);
+        square.openSite(6);
+        assert square.percolates();
+        assert !square.isFull(8);
+
+        // a diagonal path percolates on the triangular lattice but not on the square one
+        LatticePercolation triangular = new LatticePercolation(Lattice.triangular(2));
+        triangular.openSite(1);
+        triangular.openSite(2);
+        assert triangular.percolates();
+
+        // bond percolation through the middle column of a cube
+        Lattice cube = Lattice.cubic(3);
+        LatticePercolation bonds = new LatticePercolation(cube);
+        for (int b = 0; b < cube.bonds(); b++) {
+            int p = cube.bondSites[2 * b];
+            int q = cube.bondSites[2 * b + 1];
+            if (p % 9 == 4 && q == p + 9) bonds.openBond(b);
+        }
+        assert bonds.percolates();
+        assert bonds.numberOfOpenBonds() == 2;
+    }
+}
@@ -4,36 +4,53 @@
  *---------------------------------------------------------*/
 
 
-import edu.princeton.cs.algs4.WeightedQuickUnionUF;
-
+import java.nio.IntBuffer;
+import java.util.Arrays;
 
+/**
+ * n-by-n percolation system.
+ *
+ * The open sites are kept in a union-find over int[] parents with path halving and union by size. The roots
+ * also hold the number of open sites in their component and whether it touches the top row and the bottom row,
+ * so there are no virtual sites (and no backwash), percolation is detected by the merge that joins both flags,
+ * and the cluster statistics are updated in O(α(n)) per merge instead of by scanning the grid.
+ */
 public class Percolation {
+    private static final byte TOP = 1; // component contains an open site of the top row
+    private static final byte BOTTOM = 2; // component contains an open site of the bottom row
+
     private final int n; // n by n grid n
     private int countOpen = 0; // number of open squares
-    private WeightedQuickUnionUF grid; // main grid for percolation representation
-    private final WeightedQuickUnionUF bottomSiteGrid; // backwash check grid
+    private final int[] parent; // union-find parent links, a root is its own parent
+    private final int[] size; // number of open sites in the component, only meaningful for roots
+    private final byte[] flags; // TOP / BOTTOM flags of the component, only meaningful for roots
     private boolean[] boolGrid; // open true / false check grid
-    private final int virtualTopSite; // virtual topsite that connects all the sites on the top row
-    private final int virtualBottomSite; // virtual bottom site that connects all the sites on the bottom row
+    private final int[] clusterCounts; // clusterCounts[s] is the number of components of s open sites
+    private int largest = 0; // size of the largest component
+    private boolean percolates = false; // set by the open that connects the top to the bottom
+    private PercolationListener listener; // notified once when the system starts percolating
 
     public Percolation(int n) {
-        if (n <= 0) throw new IllegalArgumentException();
+        if (n <= 0 || n > 46340) throw new IllegalArgumentException();
         this.n = n;
-        int gridSize = (int) (Math.pow(n, 2)) + 2;
-        this.grid = new WeightedQuickUnionUF(gridSize);
-        this.bottomSiteGrid = new WeightedQuickUnionUF(gridSize);
+        int gridSize = n * n;
+        this.parent = new int[gridSize];
+        for (int i = 0; i < gridSize; i++) this.parent[i] = i;
+        this.size = new int[gridSize];
+        this.flags = new byte[gridSize];
         this.boolGrid = new boolean[gridSize];
-        this.virtualTopSite = gridSize - 2;
-        this.virtualBottomSite = gridSize - 1;
-        this.initializeSites();
+        this.clusterCounts = new int[gridSize + 1];
     }
 
-    private void initializeSites() {
-        // form union between the top sites and keep track of bottom sites
-        for (int i = 1; i <= this.n; i++) {
-            this.grid.union(this.getIndex(1, i), this.virtualTopSite);
-            this.bottomSiteGrid.union(this.getIndex(this.n, i), this.virtualBottomSite);
-        }
+    // blocks all sites again, so that the system can be reused for another trial
+    void reset() {
+        for (int i = 0; i < this.parent.length; i++) this.parent[i] = i;
+        Arrays.fill(this.flags, (byte) 0);
+        Arrays.fill(this.boolGrid, false);
+        Arrays.fill(this.clusterCounts, 0);
+        this.countOpen = 0;
+        this.largest = 0;
+        this.percolates = false;
     }
 
     private boolean isValidSite(int row, int col) {
@@ -46,20 +63,42 @@ public class Percolation {
         return ((row - 1) * this.n) + col - 1;
     }
 
+    private int find(int index) {
+        // path halving: point every other site on the path to its grandparent
+        while (this.parent[index] != index) {
+            this.parent[index] = this.parent[this.parent[index]];
+            index = this.parent[index];
+        }
+        return index;
+    }
+
     /**
-     * Establishes the connection between the current index and the adjacent index
-     * Connects the index to the virtual bottom site if it is connected from the top and bottom
+     * Establishes the connection between the current index and the open adjacent index,
+     * merging the sizes and flags of their components.
+     * A merge that joins a top and a bottom component is the only way the system can start percolating,
+     * so percolation is tracked here.
      */
-    private void connect(int currIndex, int adjIndex, int adjRow, int adjCol) {
-        if (this.isValidSite(adjRow, adjCol) && this.isOpen(adjRow, adjCol)
-                && !this.grid.connected(currIndex, adjIndex)) {
-            this.grid.union(currIndex, adjIndex);
-            this.bottomSiteGrid.union(currIndex, adjIndex);
-            // Backwash solution
-            if (this.bottomSiteGrid.connected(adjIndex, this.virtualBottomSite)
-                    && this.grid.connected(adjIndex, this.virtualTopSite))
-                this.grid.union(adjIndex, this.virtualBottomSite);
+    private void connect(int currIndex, int adjIndex) {
+        if (!this.boolGrid[adjIndex]) return;
+        int root = this.find(currIndex);
+        int adjRoot = this.find(adjIndex);
+        if (root == adjRoot) return;
+
+        if (this.size[root] < this.size[adjRoot]) {
+            int temp = root;
+            root = adjRoot;
+            adjRoot = temp;
         }
+        int merged = this.size[root] + this.size[adjRoot];
+        this.clusterCounts[this.size[root]]--;
+        this.clusterCounts[this.size[adjRoot]]--;
+        this.clusterCounts[merged]++;
+        if (merged > this.largest) this.largest = merged;
+
+        this.parent[adjRoot] = root;
+        this.size[root] = merged;
+        this.flags[root] |= this.flags[adjRoot];
+        if (this.flags[root] == (TOP | BOTTOM)) this.percolates = true;
     }
 
     /**
@@ -69,20 +108,94 @@ public class Percolation {
      */
     public void open(int row, int col) {
         if (!this.isValidSite(row, col)) throw new IllegalArgumentException(row + " " + col);
-        if (!this.isOpen(row, col)) {
-            int index = this.getIndex(row, col);
-            this.boolGrid[index] = true;
-            this.countOpen++;
-            if (this.n == 1) this.grid.union(index, this.virtualBottomSite); // Edge case
-
-            int[][] adjacentRowCol = {{row - 1, col}, {row, col + 1}, {row + 1, col}, {row, col - 1}};
-            for (int[] rowCol : adjacentRowCol) {
-                int adjRow = rowCol[0];
-                int adjCol = rowCol[1];
-                int adjIndex = this.getIndex(adjRow, adjCol);
-                this.connect(index, adjIndex, adjRow, adjCol);
+        this.open(this.getIndex(row, col), row, col);
+    }
+
+    /**
+     * Opens the site at index, whose row and col are already validated.
+     * The neighbors are visited with plain index arithmetic, so opening a site does not allocate.
+     */
+    private void open(int index, int row, int col) {
+        if (this.boolGrid[index]) return;
+
+        this.boolGrid[index] = true;
+        this.countOpen++;
+        boolean percolated = this.percolates;
+        this.size[index] = 1;
+        this.clusterCounts[1]++;
+        if (this.largest == 0) this.largest = 1;
+        if (row == 1) this.flags[index] |= TOP;
+        if (row == this.n) this.flags[index] |= BOTTOM;
+        if (this.flags[index] == (TOP | BOTTOM)) this.percolates = true; // Edge case n == 1
+
+        if (row > 1) this.connect(index, index - this.n);
+        if (col < this.n) this.connect(index, index + 1);
+        if (row < this.n) this.connect(index, index + this.n);
+        if (col > 1) this.connect(index, index - 1);
+
+        if (!percolated && this.percolates && this.listener != null)
+            this.listener.percolated(row, col, this.countOpen);
+    }
+
+    /**
+     * Registers the listener notified by the open that makes the system percolate, replacing any previous one.
+     * The listener is not called if the system already percolates.
+     */
+    public void setListener(PercolationListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Opens the sites (rows[i], cols[i]) in order.
+     *
+     * Returns the index i of the open that made the system percolate, or -1 if it did not start percolating
+     * during this batch. Throws IllegalArgumentException if the arrays differ in length or a site is not valid;
+     * the sites before the invalid one stay open.
+     */
+    public int openAll(int[] rows, int[] cols) {
+        if (rows == null || cols == null || rows.length != cols.length) throw new IllegalArgumentException();
+        boolean percolated = this.percolates();
+        int percolatedAt = -1;
+        for (int i = 0; i < rows.length; i++) {
+            int row = rows[i];
+            int col = cols[i];
+            if (!this.isValidSite(row, col)) throw new IllegalArgumentException(row + " " + col);
+            this.open(this.getIndex(row, col), row, col);
+            if (!percolated && this.percolates()) {
+                percolated = true;
+                percolatedAt = i;
+            }
+        }
+        return percolatedAt;
+    }
+
+    /**
+     * Opens the sites whose row major indices, (row - 1) * n + col - 1, are between the position and the limit
+     * of siteIndices, and advances its position to the limit.
+     *
+     * Returns the offset from the starting position of the open that made the system percolate,
+     * or -1 if it did not start percolating during this batch.
+     * Throws IllegalArgumentException if an index is not between 0 and n * n - 1.
+     */
+    public int openAll(IntBuffer siteIndices) {
+        if (siteIndices == null) throw new IllegalArgumentException();
+        int start = siteIndices.position();
+        int end = siteIndices.limit();
+        int gridSize = this.n * this.n;
+        boolean percolated = this.percolates();
+        int percolatedAt = -1;
+        for (int i = start; i < end; i++) {
+            int index = siteIndices.get(i);
+            if (index < 0 || index >= gridSize) throw new IllegalArgumentException(String.valueOf(index));
+            int row = index / this.n;
+            this.open(index, row + 1, index - row * this.n + 1);
+            if (!percolated && this.percolates()) {
+                percolated = true;
+                percolatedAt = i - start;
             }
         }
+        siteIndices.position(end);
+        return percolatedAt;
     }
 
     public boolean isOpen(int row, int col) {
@@ -94,7 +207,27 @@ public class Percolation {
     public boolean isFull(int row, int col) {
         if (!this.isValidSite(row, col)) throw new IllegalArgumentException(row + " " + col);
         int index = this.getIndex(row, col);
-        return this.isOpen(row, col) && this.grid.connected(index, this.virtualTopSite);
+        return this.boolGrid[index] && (this.flags[this.find(index)] & TOP) != 0;
+    }
+
+    // number of open sites in the component of (row, col), 0 if it is blocked
+    public int componentSizeOf(int row, int col) {
+        if (!this.isValidSite(row, col)) throw new IllegalArgumentException(row + " " + col);
+        int index = this.getIndex(row, col);
+        return this.boolGrid[index] ? this.size[this.find(index)] : 0;
+    }
+
+    // number of open sites in the largest component, 0 if no site is open
+    public int largestComponentSize() {
+        return this.largest;
+    }
+
+    /**
+     * Returns a snapshot of the cluster size distribution: element s is the number of components
+     * of exactly s open sites, for s from 0 to largestComponentSize().
+     */
+    public int[] clusterSizeHistogram() {
+        return Arrays.copyOf(this.clusterCounts, this.largest + 1);
     }
 
     public int numberOfOpenSites() {
@@ -102,7 +235,7 @@ public class Percolation {
     }
 
     public boolean percolates() {
-        return this.grid.connected(this.virtualTopSite, this.virtualBottomSite);
+        return this.percolates;
     }
 
     public static void main(String[] args) {
@@ -112,17 +245,30 @@ public class Percolation {
         assert !percolation.percolates();
 
         // Test open and is open
-        percolation.open(0, 0);
-        assert percolation.numberOfOpenSites() == 1;
-        assert percolation.isOpen(0, 0);
-        assert percolation.isFull(0, 0);
-        assert !percolation.isOpen(0, 1);
-        assert !percolation.isOpen(1, 0);
-        assert !percolation.isOpen(1, 1);
-        assert !percolation.isFull(1, 1);
-
         percolation.open(1, 1);
+        assert percolation.numberOfOpenSites() == 1;
         assert percolation.isOpen(1, 1);
-        assert !percolation.isFull(1, 1);
+        assert percolation.isFull(1, 1);
+        assert !percolation.isOpen(1, 2);
+        assert !percolation.isOpen(2, 1);
+        assert !percolation.isOpen(2, 2);
+        assert !percolation.isFull(2, 2);
+
+        percolation.open(2, 2);
+        assert percolation.isOpen(2, 2);
+        assert !percolation.isFull(2, 2);
+
+        // Test cluster statistics
+        Percolation clusters = new Percolation(3);
+        clusters.open(1, 1);
+        clusters.open(1, 3);
+        clusters.open(2, 3);
+        assert clusters.largestComponentSize() == 2;
+        assert clusters.componentSizeOf(1, 1) == 1;
+        assert clusters.componentSizeOf(2, 3) == 2;
+        assert clusters.componentSizeOf(2, 2) == 0;
+        clusters.open(1, 2);
+        assert clusters.largestComponentSize() == 4;
+        assert Arrays.equals(clusters.clusterSizeHistogram(), new int[] {0, 0, 0, 0, 1});
     }
 }
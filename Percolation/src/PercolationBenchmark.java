@@ -0,0 +1,207 @@
+/******************************************************************************
+ *  Compilation:  javac PercolationBenchmark.java
+ *  Execution:    java PercolationBenchmark mode n trials [seed]
+ *  Dependencies: Percolation.java CompactPercolation.java PercolationStats.java
+ *                BisectionTrial.java
+ *
+ *  Timing harness for the percolation experiments.
+ *
+ *    - drivers: runs the same number of trials with the rejection sampling
+ *      driver (random (row, col) draws, already open sites included) and the
+ *      shuffled driver used by PercolationStats, and reports draws per trial
+ *      and trials per second for both.
+ *    - memory: measures the heap retained per site by Percolation and
+ *      CompactPercolation on an n-by-n grid, and their open() throughput
+ *      when opening every site in a shuffled order, best of trials runs.
+ *    - alloc: opens every site of a Percolation in a shuffled order and
+ *      reports the bytes allocated per open() (measured with the per-thread
+ *      allocation counter, the same figure as JMH's gc.alloc.rate.norm) and
+ *      open() throughput, over the last of trials runs.
+ *    - bisection: estimates the threshold with PercolationStats in both the
+ *      INCREMENTAL and BISECTION modes from the same seed, and reports each
+ *      estimate with its confidence interval, the z-score of the difference
+ *      of the means, the wall-clock time and the bytes per site one worker
+ *      needs.
+ *
+ *  % java PercolationBenchmark drivers 200 200 42
+ *  % java PercolationBenchmark memory 2000 5
+ *  % java PercolationBenchmark alloc 1000 20
+ *  % java PercolationBenchmark bisection 5000 40
+ *
+ ******************************************************************************/
+
+import edu.princeton.cs.algs4.Stopwatch;
+
+import java.lang.management.ManagementFactory;
+import java.util.SplittableRandom;
+
+public class PercolationBenchmark {
+
+    // opens random (row, col) draws until the grid percolates and returns the number of draws
+    private static long rejectionTrial(int n, SplittableRandom random) {
+        Percolation perc = new Percolation(n);
+        long draws = 0;
+        while (!perc.percolates()) {
+            int row = random.nextInt(n) + 1;
+            int col = random.nextInt(n) + 1;
+            perc.open(row, col);
+            draws++;
+        }
+        return draws;
+    }
+
+    private static void drivers(int n, int trials, long seed) {
+        // warm up both drivers so that the timed runs are compiled
+        SplittableRandom warmup = new SplittableRandom(seed);
+        int[] sites = PercolationStats.newSiteOrder(n);
+        for (int trial = 0; trial < Math.min(trials, 20); trial++) {
+            rejectionTrial(n, warmup);
+            PercolationStats.runTrial(n, sites, warmup);
+        }
+
+        SplittableRandom random = new SplittableRandom(seed);
+        long draws = 0;
+        Stopwatch stopwatch = new Stopwatch();
+        for (int trial = 0; trial < trials; trial++) {
+            draws += rejectionTrial(n, random);
+        }
+        report("rejection", trials, draws, stopwatch.elapsedTime());
+
+        random = new SplittableRandom(seed);
+        draws = 0;
+        stopwatch = new Stopwatch();
+        for (int trial = 0; trial < trials; trial++) {
+            // every draw of the shuffled driver opens a new site
+            draws += Math.round(PercolationStats.runTrial(n, sites, random) * n * n);
+        }
+        report("shuffled", trials, draws, stopwatch.elapsedTime());
+    }
+
+    // all site indices of an n-by-n grid in a random order
+    private static int[] shuffledSites(int n, long seed) {
+        int[] sites = PercolationStats.newSiteOrder(n);
+        SplittableRandom random = new SplittableRandom(seed);
+        for (int i = sites.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int site = sites[i];
+            sites[i] = sites[j];
+            sites[j] = site;
+        }
+        return sites;
+    }
+
+    // bytes allocated so far by the current thread
+    private static long allocatedBytes() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static void alloc(int n, int trials, long seed) {
+        int[] sites = shuffledSites(n, seed);
+        double bytesPerOpen = 0.0;
+        double opensPerSec = 0.0;
+        for (int trial = 0; trial < trials; trial++) {
+            Percolation perc = new Percolation(n);
+            long before = allocatedBytes();
+            Stopwatch stopwatch = new Stopwatch();
+            for (int site : sites) perc.open(site / n + 1, site % n + 1);
+            double seconds = stopwatch.elapsedTime();
+            bytesPerOpen = (double) (allocatedBytes() - before) / sites.length;
+            opensPerSec = sites.length / seconds;
+        }
+        System.out.printf("Percolation.open   bytes/op = %8.3f   opens/sec = %14.0f%n", bytesPerOpen, opensPerSec);
+    }
+
+    // heap in use after letting the garbage collector settle
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 4; i++) {
+            System.gc();
+            Thread.yield();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static void memory(int n, int trials, long seed) {
+        int[] sites = shuffledSites(n, seed);
+        double sites2 = (double) n * n;
+
+        long before = usedHeap();
+        Percolation perc = new Percolation(n);
+        long bytes = usedHeap() - before;
+        double best = 0.0;
+        for (int trial = 0; trial < trials; trial++) {
+            perc = new Percolation(n);
+            Stopwatch stopwatch = new Stopwatch();
+            for (int site : sites) perc.open(site / n + 1, site % n + 1);
+            best = Math.max(best, sites2 / stopwatch.elapsedTime());
+        }
+        System.out.printf("%-20s bytes/site = %6.2f   opens/sec = %14.0f%n", "Percolation", bytes / sites2, best);
+        perc = null;
+
+        before = usedHeap();
+        CompactPercolation compact = new CompactPercolation(n);
+        bytes = usedHeap() - before;
+        best = 0.0;
+        for (int trial = 0; trial < trials; trial++) {
+            compact = new CompactPercolation(n);
+            Stopwatch stopwatch = new Stopwatch();
+            for (int site : sites) compact.open(site / n + 1, site % n + 1);
+            best = Math.max(best, sites2 / stopwatch.elapsedTime());
+        }
+        System.out.printf("%-20s bytes/site = %6.2f   opens/sec = %14.0f%n", "CompactPercolation", bytes / sites2, best);
+    }
+
+    private static void bisection(int n, int trials, long seed) {
+        int threads = Runtime.getRuntime().availableProcessors();
+        double sites2 = (double) n * n;
+
+        // working set of one INCREMENTAL worker: a Percolation plus the shuffled site order
+        long before = usedHeap();
+        Percolation perc = new Percolation(n);
+        double incrementalBytes = (usedHeap() - before) / sites2 + 4;
+        perc = null;
+
+        Stopwatch stopwatch = new Stopwatch();
+        PercolationStats incremental = new PercolationStats(n, trials, seed, threads, PercolationStats.Mode.INCREMENTAL);
+        double incrementalTime = stopwatch.elapsedTime();
+
+        stopwatch = new Stopwatch();
+        PercolationStats bisection = new PercolationStats(n, trials, seed, threads, PercolationStats.Mode.BISECTION);
+        double bisectionTime = stopwatch.elapsedTime();
+
+        // bytes held by one BISECTION worker after a representative trial
+        BisectionTrial trial = new BisectionTrial(n);
+        trial.run(new SplittableRandom(seed));
+        double bisectionBytes = trial.bytes() / sites2;
+
+        report("incremental", incremental, incrementalTime, incrementalBytes);
+        report("bisection", bisection, bisectionTime, bisectionBytes);
+        double standardError = Math.sqrt((incremental.stddev() * incremental.stddev()
+                + bisection.stddev() * bisection.stddev()) / trials);
+        System.out.printf("z-score of the difference of the means = %.3f%n",
+                (bisection.mean() - incremental.mean()) / standardError);
+    }
+
+    private static void report(String mode, PercolationStats stats, double seconds, double bytesPerSite) {
+        System.out.printf("%-12s mean = %.6f   95%% CI = [%.6f, %.6f]   time = %8.2f s   bytes/site = %6.2f%n",
+                mode, stats.mean(), stats.confidenceLo(), stats.confidenceHi(), seconds, bytesPerSite);
+    }
+
+    private static void report(String driver, int trials, long draws, double seconds) {
+        System.out.printf("%-10s draws/trial = %12.1f   trials/sec = %10.2f%n",
+                driver, (double) draws / trials, trials / seconds);
+    }
+
+    public static void main(String[] args) {
+        String mode = args[0];
+        int n = Integer.parseInt(args[1]);
+        int trials = Integer.parseInt(args[2]);
+        long seed = args.length > 3 ? Long.parseLong(args[3]) : System.nanoTime();
+        if (mode.equals("drivers")) drivers(n, trials, seed);
+        else if (mode.equals("memory")) memory(n, trials, seed);
+        else if (mode.equals("alloc")) alloc(n, trials, seed);
+        else if (mode.equals("bisection")) bisection(n, trials, seed);
+        else throw new IllegalArgumentException("unknown mode " + mode);
+    }
+}
@@ -0,0 +1,11 @@
+/**
+ * Callback for the open that makes a Percolation system percolate.
+ */
+public interface PercolationListener {
+
+    /**
+     * Called once, right after the site (row, col) was opened and the system started percolating
+     * with openSites open sites.
+     */
+    void percolated(int row, int col, int openSites);
+}
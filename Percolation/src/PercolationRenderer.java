@@ -0,0 +1,188 @@
+/******************************************************************************
+ *  Compilation:  javac PercolationRenderer.java
+ *  Execution:    java PercolationRenderer input.txt outprefix [scale] [every]
+ *                java PercolationRenderer input.txt - [scale] [every] | ffmpeg ...
+ *  Dependencies: Percolation.java
+ *
+ *  Headless version of PercolationVisualizer that renders the same frames
+ *  (full sites light blue, open sites white, blocked sites black, with
+ *  site (1, 1) in the upper left-hand corner) without a display.
+ *
+ *  It reads a PercolationVisualizer input file and writes a frame after
+ *  every `every` opens (default 1) and after the last one, each site drawn
+ *  as a scale-by-scale block (default 1). Frames are written as
+ *  outprefix000000.png, outprefix000001.png, ... or, if outprefix is -, as
+ *  raw RGB to standard output for
+ *
+ *  % java PercolationRenderer input50.txt - 4 10 | ffmpeg -f rawvideo
+ *        -pix_fmt rgb24 -s 200x200 -r 30 -i - percolation.mp4
+ *
+ ******************************************************************************/
+
+import edu.princeton.cs.algs4.In;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+public class PercolationRenderer {
+    private static final int BLACK = 0x000000;
+    private static final int WHITE = 0xFFFFFF;
+    private static final int LIGHT_BLUE = 0x67C6F3; // StdDraw.BOOK_LIGHT_BLUE
+
+    private static final byte BLOCKED = 0;
+    private static final byte OPEN = 1;
+    private static final byte FULL = 2;
+
+    private final int n; // n by n grid n
+    private final int scale; // pixels per site side
+    private final Percolation perc;
+    private final byte[] sites; // BLOCKED / OPEN / FULL state of each site, as drawn
+    private final BufferedImage image;
+    private final int[] pixels; // raster of image, one int RGB per pixel
+    private final byte[] rgb; // packed RGB copy of the raster for raw frames
+    private int[] stack = new int[64]; // flood fill stack of site indices
+    private int dirtyLo; // first site row (0 based) changed since the last raw frame
+    private int dirtyHi; // last site row (0 based) changed since the last raw frame
+
+    public PercolationRenderer(int n, int scale) {
+        if (n <= 0 || scale <= 0 || (long) n * scale * n * scale * 3 > Integer.MAX_VALUE)
+            throw new IllegalArgumentException(n + " " + scale);
+        this.n = n;
+        this.scale = scale;
+        this.perc = new Percolation(n);
+        this.sites = new byte[n * n];
+        this.image = new BufferedImage(n * scale, n * scale, BufferedImage.TYPE_INT_RGB);
+        this.pixels = ((DataBufferInt) this.image.getRaster().getDataBuffer()).getData();
+        this.rgb = new byte[3 * this.pixels.length];
+        this.dirtyLo = 0;
+        this.dirtyHi = n - 1;
+    }
+
+    /**
+     * Opens the site for the given row and col and updates the pixels of the sites whose color changed.
+     *
+     * A site becomes full when it is opened next to a full site or on the top row, and it then fills every open
+     * site it connects, so each site is recolored at most twice over the whole run and no frame needs isFull.
+     * Throws IllegalArgumentException if it is not a valid site.
+     */
+    public void open(int row, int col) {
+        this.perc.open(row, col);
+        int index = (row - 1) * this.n + col - 1;
+        if (this.sites[index] != BLOCKED) return;
+
+        boolean full = row == 1
+                || row > 1 && this.sites[index - this.n] == FULL
+                || col < this.n && this.sites[index + 1] == FULL
+                || row < this.n && this.sites[index + this.n] == FULL
+                || col > 1 && this.sites[index - 1] == FULL;
+        if (!full) {
+            this.paint(index, OPEN);
+            return;
+        }
+        // flood fill the open sites connected to index
+        this.paint(index, FULL);
+        int size = 0;
+        this.stack[size++] = index;
+        while (size > 0) {
+            int site = this.stack[--size];
+            int siteCol = site % this.n;
+            if (site >= this.n) size = this.fill(size, site - this.n);
+            if (siteCol < this.n - 1) size = this.fill(size, site + 1);
+            if (site < this.n * (this.n - 1)) size = this.fill(size, site + this.n);
+            if (siteCol > 0) size = this.fill(size, site - 1);
+        }
+    }
+
+    // makes site full and pushes it if it is open but not full yet, returning the new stack size
+    private int fill(int size, int site) {
+        if (this.sites[site] != OPEN) return size;
+        this.paint(site, FULL);
+        if (size == this.stack.length) this.stack = Arrays.copyOf(this.stack, 2 * size);
+        this.stack[size] = site;
+        return size + 1;
+    }
+
+    // sets the state of site and fills its block of pixels with the matching color
+    private void paint(int site, byte state) {
+        this.sites[site] = state;
+        int row = site / this.n;
+        int col = site % this.n;
+        int color = state == FULL ? LIGHT_BLUE : WHITE;
+        int width = this.n * this.scale;
+        for (int y = row * this.scale; y < (row + 1) * this.scale; y++) {
+            Arrays.fill(this.pixels, y * width + col * this.scale, y * width + (col + 1) * this.scale, color);
+        }
+        this.dirtyLo = Math.min(this.dirtyLo, row);
+        this.dirtyHi = Math.max(this.dirtyHi, row);
+    }
+
+    public Percolation percolation() {
+        return this.perc;
+    }
+
+    // current frame; its raster is updated in place by open
+    public BufferedImage image() {
+        return this.image;
+    }
+
+    // writes the current frame as a PNG file
+    public void writePng(File file) throws IOException {
+        ImageIO.write(this.image, "png", file);
+    }
+
+    /**
+     * Writes the current frame as raw 24 bit RGB, row by row from the top.
+     * Only the pixel rows of the sites changed since the previous frame are converted again.
+     */
+    public void writeRaw(OutputStream out) throws IOException {
+        if (this.dirtyLo <= this.dirtyHi) {
+            int from = this.dirtyLo * this.scale * this.n * this.scale;
+            int to = (this.dirtyHi + 1) * this.scale * this.n * this.scale;
+            for (int i = from; i < to; i++) {
+                int color = this.pixels[i];
+                this.rgb[3 * i] = (byte) (color >>> 16);
+                this.rgb[3 * i + 1] = (byte) (color >>> 8);
+                this.rgb[3 * i + 2] = (byte) color;
+            }
+            this.dirtyLo = this.n;
+            this.dirtyHi = -1;
+        }
+        out.write(this.rgb);
+    }
+
+    public static void main(String[] args) throws IOException {
+        In in = new In(args[0]);      // input file
+        String prefix = args[1];
+        int scale = args.length > 2 ? Integer.parseInt(args[2]) : 1;
+        int every = args.length > 3 ? Integer.parseInt(args[3]) : 1;
+        int n = in.readInt();         // n-by-n percolation system
+
+        PercolationRenderer renderer = new PercolationRenderer(n, scale);
+        OutputStream raw = prefix.equals("-") ? new BufferedOutputStream(System.out, 1 << 20) : null;
+        int frame = 0;
+        int opened = 0;
+        boolean written = false;
+        while (!in.isEmpty()) {
+            int i = in.readInt();
+            int j = in.readInt();
+            renderer.open(i, j);
+            written = ++opened % every == 0;
+            if (written) {
+                if (raw != null) renderer.writeRaw(raw);
+                else renderer.writePng(new File(String.format("%s%06d.png", prefix, frame)));
+                frame++;
+            }
+        }
+        if (!written) {
+            if (raw != null) renderer.writeRaw(raw);
+            else renderer.writePng(new File(String.format("%s%06d.png", prefix, frame)));
+        }
+        if (raw != null) raw.flush();
+    }
+}
@@ -1,55 +1,316 @@
 import edu.princeton.cs.algs4.StdRandom;
-import edu.princeton.cs.algs4.StdStats;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.function.ToDoubleFunction;
 
 public class PercolationStats {
-    private final double[] percThresholds;
+    private static final int TRIALS_PER_TASK = 8; // fork-join leaf size
+    private static final int CHECKPOINT_BLOCK = 1024; // trials per block of a checkpointed run
+    private static final long CHECKPOINT_INTERVAL = 60_000; // minimum milliseconds between checkpoints
+
+    /**
+     * How a trial finds the threshold of one random system.
+     *
+     * INCREMENTAL opens the sites of a Percolation in a random order until it percolates.
+     * BISECTION gives every site a random open time and bisects the cutoff with flood fills (see BisectionTrial),
+     * using about 2 bytes per site instead of the ~18 of INCREMENTAL, which is what makes n ≥ 20,000 fit.
+     * Each worker thread keeps one system for all its trials, so a run needs that much memory per thread.
+     */
+    public enum Mode { INCREMENTAL, BISECTION }
+
     private final int T;
-    private Double mean;
-    private Double stddev;
+    private final RunningStats stats = new RunningStats(); // mean and variance of the thresholds
+    private final ThresholdHistogram histogram; // for quantiles of the thresholds, null unless requested
 
     // perform trials independent experiments on an n-by-n grid
     // throw a java.lang.IllegalArgumentException if either n ≤ 0 or trials ≤ 0.
     public PercolationStats(int n, int trials) {
-        if (n < 0 || trials < 0) throw new IllegalArgumentException();
+        if (n <= 0 || trials <= 0) throw new IllegalArgumentException();
 
         this.T = trials;
-        this.percThresholds = new double[trials];
-        if (n <= 0 || trials <= 0) throw new IllegalArgumentException();
+        this.histogram = null;
+        SplittableRandom random = new SplittableRandom(StdRandom.uniform(Integer.MAX_VALUE));
+        int[] sites = newSiteOrder(n);
         for (int trial = 0; trial < trials; trial++) {
+            this.stats.add(runTrial(n, sites, random));
+        }
+    }
+
+    /**
+     * Performs trials independent experiments on an n-by-n grid using a fork-join pool of the given number of threads.
+     *
+     * The trial range is split in halves down to TRIALS_PER_TASK trials, and each half gets its own
+     * SplittableRandom split off its parent's stream before it is forked. Each leaf accumulates its thresholds
+     * in a RunningStats, and the halves are merged left to right. The shape of that tree depends only on trials,
+     * so mean, stddev and the confidence interval are bit-identical for a given seed regardless of the thread
+     * count or how the tasks were scheduled.
+     */
+    public PercolationStats(int n, int trials, long seed, int threads) {
+        this(n, trials, seed, threads, Mode.INCREMENTAL);
+    }
+
+    // same as above, with each trial run in the given mode
+    public PercolationStats(int n, int trials, long seed, int threads, Mode mode) {
+        this(n, trials, seed, threads, mode, 0, null);
+    }
+
+    /**
+     * Same as above, in progressive mode when reportEvery is positive: the trials are run in blocks of reportEvery
+     * trials, and progress (unless it is null) is passed this object after each block, so that it can report the
+     * running mean, stddev and confidence interval and a long run can be stopped once the interval is narrow
+     * enough. The results depend on reportEvery, which sets the blocks.
+     */
+    public PercolationStats(int n, int trials, long seed, int threads, Mode mode, int reportEvery,
+                            Consumer<PercolationStats> progress) {
+        this(n, trials, seed, threads, mode, reportEvery, progress, null, false);
+    }
+
+    /**
+     * Same as above, checkpointing to the file named checkpoint unless it is null, and keeping a histogram of the
+     * thresholds for quantile() if quantiles is true.
+     *
+     * A checkpointed run works in blocks (of reportEvery trials, or 1024 if it is 0) and, at most once a minute
+     * and after the last block, saves the statistics of the blocks done so far (see StatsCheckpoint).
+     * If the file already holds a checkpoint of the same experiment, seed and trials, the run resumes after its
+     * last saved block and gives the same results as an uninterrupted run.
+     */
+    public PercolationStats(int n, int trials, long seed, int threads, Mode mode, int reportEvery,
+                            Consumer<PercolationStats> progress, String checkpoint, boolean quantiles) {
+        if (n <= 0 || trials <= 0 || threads <= 0 || mode == null || reportEvery < 0)
+            throw new IllegalArgumentException();
+
+        this.T = trials;
+        this.histogram = quantiles ? new ThresholdHistogram() : null;
+        String experiment = "grid " + n + " " + mode;
+        if (mode == Mode.BISECTION) this.run(() -> new BisectionTrial(n)::run,
+                experiment, seed, threads, reportEvery, progress, checkpoint);
+        else this.run(() -> {
             Percolation perc = new Percolation(n);
-            while (!perc.percolates()) {
-                int row = StdRandom.uniform(n) + 1;
-                int col = StdRandom.uniform(n) + 1;
-                perc.open(row, col);
+            int[] sites = newSiteOrder(n);
+            return random -> {
+                perc.reset();
+                resetOrder(sites);
+                return runTrial(perc, n, sites, random);
+            };
+        }, experiment, seed, threads, reportEvery, progress, checkpoint);
+    }
+
+    /**
+     * Performs trials independent experiments on lattice the same way, opening its sites (or its bonds if bonds
+     * is true) in a random order until it percolates. The threshold of a trial is the fraction of open sites
+     * (or open bonds).
+     */
+    public PercolationStats(Lattice lattice, boolean bonds, int trials, long seed, int threads) {
+        this(lattice, bonds, trials, seed, threads, 0, null);
+    }
+
+    // same as above, in progressive mode when reportEvery is positive
+    public PercolationStats(Lattice lattice, boolean bonds, int trials, long seed, int threads, int reportEvery,
+                            Consumer<PercolationStats> progress) {
+        this(lattice, bonds, trials, seed, threads, reportEvery, progress, null, false);
+    }
+
+    // same as above, checkpointing to the file named checkpoint unless it is null, with quantiles if requested
+    public PercolationStats(Lattice lattice, boolean bonds, int trials, long seed, int threads, int reportEvery,
+                            Consumer<PercolationStats> progress, String checkpoint, boolean quantiles) {
+        if (lattice == null || trials <= 0 || threads <= 0 || reportEvery < 0) throw new IllegalArgumentException();
+
+        this.T = trials;
+        this.histogram = quantiles ? new ThresholdHistogram() : null;
+        this.run(() -> {
+            LatticePercolation perc = new LatticePercolation(lattice);
+            int[] order = newOrder(bonds ? lattice.bonds() : lattice.sites());
+            return random -> {
+                perc.reset();
+                resetOrder(order);
+                return runTrial(perc, bonds, order, random);
+            };
+        }, lattice + (bonds ? " bond" : " site"), seed, threads, reportEvery, progress, checkpoint);
+    }
+
+    /**
+     * Runs the trials created by newTrial in blocks of reportEvery trials (or in a single block if it is 0 and there
+     * is no checkpoint), each block with its own stream split off the seed.
+     *
+     * A trial function holds the buffers of a whole system, so newTrial is called once per worker thread, not once
+     * per fork-join leaf, and at most threads systems are live at a time. Each trial resets its buffers first, so
+     * its threshold depends only on its random stream and not on which thread ran it.
+     */
+    private void run(Supplier<ToDoubleFunction<SplittableRandom>> newTrial, String experiment, long seed,
+                     int threads, int reportEvery, Consumer<PercolationStats> progress, String checkpoint) {
+        SplittableRandom random = new SplittableRandom(seed);
+        int block = reportEvery > 0 ? reportEvery : checkpoint != null ? CHECKPOINT_BLOCK : this.T;
+        int blocks = (this.T - 1) / block + 1;
+
+        StatsCheckpoint saved = null;
+        int doneBlocks = 0;
+        if (checkpoint != null) {
+            // a checkpoint without the histogram cannot resume a run with quantiles, or the reverse
+            if (this.histogram != null) experiment += " with quantiles";
+            saved = new StatsCheckpoint(checkpoint, experiment, seed, this.T, block);
+            doneBlocks = saved.read(this.stats, this.histogram);
+            for (int b = 0; b < doneBlocks; b++) random.split(); // streams of the blocks already done
+        }
+        long lastSaved = System.currentTimeMillis();
+
+        // the trial function of each worker thread, dropped with the pool at the end of the run
+        Map<Thread, ToDoubleFunction<SplittableRandom>> trials = new ConcurrentHashMap<>();
+        Supplier<ToDoubleFunction<SplittableRandom>> workerTrial =
+                () -> trials.computeIfAbsent(Thread.currentThread(), thread -> newTrial.get());
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            for (int b = doneBlocks; b < blocks; b++) {
+                int size = Math.min(block, this.T - b * block);
+                this.stats.merge(pool.invoke(new TrialTask(workerTrial, this.histogram, size, random.split())));
+                if (reportEvery > 0 && progress != null) progress.accept(this);
+                if (saved != null && (b == blocks - 1 || System.currentTimeMillis() - lastSaved >= CHECKPOINT_INTERVAL)) {
+                    saved.write(b + 1, this.stats, this.histogram);
+                    lastSaved = System.currentTimeMillis();
+                }
             }
-            this.percThresholds[trial] = perc.numberOfOpenSites() / Math.pow(n, 2);
+        } finally {
+            pool.shutdown();
         }
     }
 
+    /**
+     * Runs trials trials and returns the statistics of their thresholds, also adding them to histogram
+     * unless it is null
+     */
+    private static class TrialTask extends RecursiveTask<RunningStats> {
+        private static final long serialVersionUID = 1L;
+
+        private final Supplier<ToDoubleFunction<SplittableRandom>> newTrial; // trial of the current worker thread
+        private final ThresholdHistogram histogram;
+        private final int trials;
+        private final SplittableRandom random;
+
+        TrialTask(Supplier<ToDoubleFunction<SplittableRandom>> newTrial, ThresholdHistogram histogram,
+                  int trials, SplittableRandom random) {
+            this.newTrial = newTrial;
+            this.histogram = histogram;
+            this.trials = trials;
+            this.random = random;
+        }
+
+        @Override
+        protected RunningStats compute() {
+            if (this.trials <= TRIALS_PER_TASK) {
+                RunningStats stats = new RunningStats();
+                ToDoubleFunction<SplittableRandom> trial = this.newTrial.get();
+                for (int t = 0; t < this.trials; t++) {
+                    double threshold = trial.applyAsDouble(this.random);
+                    stats.add(threshold);
+                    if (this.histogram != null) this.histogram.add(threshold);
+                }
+                return stats;
+            }
+            int half = this.trials >>> 1;
+            // split before forking so that the streams do not depend on scheduling
+            TrialTask left = new TrialTask(this.newTrial, this.histogram, half, this.random.split());
+            TrialTask right = new TrialTask(this.newTrial, this.histogram, this.trials - half, this.random);
+            invokeAll(left, right);
+            RunningStats stats = left.join();
+            stats.merge(right.join());
+            return stats;
+        }
+    }
+
+    // indices 0 ~ size - 1, to be shuffled by a trial
+    private static int[] newOrder(int size) {
+        int[] order = new int[size];
+        resetOrder(order);
+        return order;
+    }
+
+    // puts the indices of order back in increasing order
+    private static void resetOrder(int[] order) {
+        for (int i = 0; i < order.length; i++) order[i] = i;
+    }
+
+    // site indices 0 ~ n^2 - 1 in row major order, to be shuffled by runTrial
+    static int[] newSiteOrder(int n) {
+        return newOrder(n * n);
+    }
+
+    /**
+     * Opens the sites of an n-by-n grid in a uniformly random order until it percolates
+     * and returns the fraction of open sites.
+     *
+     * The order is drawn lazily with Fisher-Yates: draw i swaps a random site from sites[i..] into sites[i],
+     * so every draw opens a site that is still blocked and a trial makes exactly numberOfOpenSites() draws.
+     * sites only has to be a permutation of the site indices, so it is reused across trials without resetting.
+     */
+    static double runTrial(int n, int[] sites, SplittableRandom random) {
+        return runTrial(new Percolation(n), n, sites, random);
+    }
+
+    // same as above on perc, a new or reset n-by-n system
+    private static double runTrial(Percolation perc, int n, int[] sites, SplittableRandom random) {
+        for (int i = 0; !perc.percolates(); i++) {
+            int j = i + random.nextInt(sites.length - i);
+            int site = sites[j];
+            sites[j] = sites[i];
+            sites[i] = site;
+            perc.open(site / n + 1, site % n + 1);
+        }
+        return perc.numberOfOpenSites() / Math.pow(n, 2);
+    }
+
+    /**
+     * Opens the sites (or bonds) of lattice in the random order drawn by the same lazy Fisher-Yates as above
+     * until it percolates, and returns the fraction of open sites (or bonds). perc must be new or reset.
+     */
+    static double runTrial(LatticePercolation perc, boolean bonds, int[] order, SplittableRandom random) {
+        int i = 0;
+        while (!perc.percolates()) {
+            int j = i + random.nextInt(order.length - i);
+            int next = order[j];
+            order[j] = order[i];
+            order[i++] = next;
+            if (bonds) perc.openBond(next);
+            else perc.openSite(next);
+        }
+        return (double) i / order.length;
+    }
+
     // sample mean of percolation threshold
     public double mean() {
-        if (this.mean == null){
-            this.mean = StdStats.mean(this.percThresholds);
-        }
-        return this.mean;
+        return this.stats.mean();
     }
 
     // sample standard deviation of percolation threshold
     public double stddev() {
-        if (this.stddev == null){
-            this.stddev = StdStats.stddev(this.percThresholds);
-        }
-        return this.stddev;
+        return this.stats.stddev();
+    }
+
+    // number of trials done so far, for progress reports
+    public long trialsDone() {
+        return this.stats.count();
+    }
+
+    // q-quantile of the percolation thresholds, to within 2^-17
+    // throw a java.lang.IllegalStateException if quantiles were not requested
+    public double quantile(double q) {
+        if (this.histogram == null) throw new IllegalStateException("quantiles were not requested");
+        return this.histogram.quantile(q);
     }
 
     // low  endpoint of 95% confidence interval
     public double confidenceLo() {
-        return (this.mean() - (1.96 * this.stddev()) / Math.sqrt(this.T));
+        return (this.mean() - (1.96 * this.stddev()) / Math.sqrt(this.stats.count()));
     }
 
     // high endpoint of 95% confidence interval
     public double confidenceHi() {
-        return (this.mean() + (1.96 * this.stddev()) / Math.sqrt(this.T));
+        return (this.mean() + (1.96 * this.stddev()) / Math.sqrt(this.stats.count()));
 
     }
 
@@ -58,14 +319,66 @@ public class PercolationStats {
     // performs T independent computational experiments (discussed above) on an n-by-n grid
     // prints the sample mean, sample standard deviation, and the 95% confidence interval for the percolation threshold.
     // Use StdRandom to generate random numbers;
-    // use StdStats to compute the sample mean and sample standard deviation.
+    // use RunningStats to compute the sample mean and sample standard deviation.
+    // Optional third and fourth arguments seed and threads run the trials in parallel,
+    // and an optional fifth argument selects the mode (incremental or bisection) or a lattice
+    // (square, triangular, honeycomb or cubic), followed by site or bond for lattices.
+    // With a seed, the option -progress k prints running estimates every k trials,
+    // the option -checkpoint file saves the run to file, resuming from it if it exists,
+    // and the option -quantiles also prints the median and the 5% and 95% quantiles.
     public static void main(String[] args) {
+        int reportEvery = 0;
+        String checkpoint = null;
+        boolean quantiles = false;
+        // options are matched by name only, so that a negative seed is not taken for one
+        String[] positional = new String[args.length];
+        int count = 0;
+        for (int i = 0; i < args.length; i++) {
+            String option = args[i];
+            if (option.equals("-progress") || option.equals("-checkpoint")) {
+                if (i + 1 == args.length) throw new IllegalArgumentException(option + " needs a value");
+                if (option.equals("-progress")) reportEvery = Integer.parseInt(args[++i]);
+                else checkpoint = args[++i];
+            } else if (option.equals("-quantiles")) {
+                quantiles = true;
+            } else {
+                positional[count++] = option;
+            }
+        }
+        args = Arrays.copyOf(positional, count);
+        if (args.length < 3 && (reportEvery > 0 || checkpoint != null || quantiles))
+            throw new IllegalArgumentException("-progress, -checkpoint and -quantiles need a seed");
+        Consumer<PercolationStats> progress = stats ->
+                System.out.printf("trials = %d   mean = %.6f   stddev = %.6f   95%% CI = [%.6f, %.6f]%n",
+                        stats.trialsDone(), stats.mean(), stats.stddev(), stats.confidenceLo(), stats.confidenceHi());
         int n = Integer.parseInt(args[0]);
         int T = Integer.parseInt(args[1]);
-        PercolationStats percolationStats = new PercolationStats(n, T);
+        PercolationStats percolationStats;
+        if (args.length > 2) {
+            long seed = Long.parseLong(args[2]);
+            int threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+            String kind = args.length > 4 ? args[4] : "incremental";
+            boolean bonds = args.length > 5 && args[5].equals("bond");
+            Lattice lattice = null;
+            if (kind.equals("square")) lattice = Lattice.square(n);
+            else if (kind.equals("triangular")) lattice = Lattice.triangular(n);
+            else if (kind.equals("honeycomb")) lattice = Lattice.honeycomb(n);
+            else if (kind.equals("cubic")) lattice = Lattice.cubic(n);
+            if (lattice != null)
+                percolationStats = new PercolationStats(lattice, bonds, T, seed, threads, reportEvery, progress,
+                        checkpoint, quantiles);
+            else percolationStats = new PercolationStats(n, T, seed, threads, Mode.valueOf(kind.toUpperCase()),
+                    reportEvery, progress, checkpoint, quantiles);
+        } else {
+            percolationStats = new PercolationStats(n, T);
+        }
         System.out.println("mean                    = " + percolationStats.mean());
         System.out.println("stddev                  = " + percolationStats.stddev());
         System.out.println("95% confidence interval = ["
                 + percolationStats.confidenceLo() + ", " + percolationStats.confidenceHi() + "]");
+        if (quantiles) {
+            System.out.println("median, 5%, 95%         = " + percolationStats.quantile(0.5) + ", "
+                    + percolationStats.quantile(0.05) + ", " + percolationStats.quantile(0.95));
+        }
     }
 }
@@ -0,0 +1,70 @@
+/**
+ * Mean and variance of a stream of values in O(1) memory, using Welford's online update.
+ *
+ * Two accumulators can be merged with Chan et al.'s pairwise formula, so partial results computed on
+ * different threads can be combined; merging in a fixed order gives bit-identical results.
+ */
+public class RunningStats {
+    private long count;  // number of values
+    private double mean; // mean of the values
+    private double m2;   // sum of squared differences from the mean
+
+    public RunningStats() {
+    }
+
+    // accumulator with the given state, as returned by count(), mean() and sumOfSquares()
+    RunningStats(long count, double mean, double m2) {
+        if (count < 0) throw new IllegalArgumentException();
+        this.count = count;
+        this.mean = mean;
+        this.m2 = m2;
+    }
+
+    // adds x to the stream
+    public void add(double x) {
+        this.count++;
+        double delta = x - this.mean;
+        this.mean += delta / this.count;
+        this.m2 += delta * (x - this.mean);
+    }
+
+    // adds the values of other to this stream
+    public void merge(RunningStats other) {
+        if (other.count == 0) return;
+        if (this.count == 0) {
+            this.count = other.count;
+            this.mean = other.mean;
+            this.m2 = other.m2;
+            return;
+        }
+        long count = this.count + other.count;
+        double delta = other.mean - this.mean;
+        this.mean += delta * other.count / count;
+        this.m2 += other.m2 + delta * delta * ((double) this.count * other.count / count);
+        this.count = count;
+    }
+
+    public long count() {
+        return this.count;
+    }
+
+    // sample mean; NaN if the stream is empty
+    public double mean() {
+        return this.count == 0 ? Double.NaN : this.mean;
+    }
+
+    // sample variance; NaN if there are fewer than two values
+    public double variance() {
+        return this.count < 2 ? Double.NaN : this.m2 / (this.count - 1);
+    }
+
+    // sample standard deviation; NaN if there are fewer than two values
+    public double stddev() {
+        return Math.sqrt(this.variance());
+    }
+
+    // sum of squared differences from the mean, for saving the accumulator
+    double sumOfSquares() {
+        return this.m2;
+    }
+}
@@ -0,0 +1,135 @@
+/******************************************************************************
+ *  Compilation:  javac SiteEventReader.java
+ *  Execution:    java SiteEventReader events.bin
+ *                java SiteEventReader input.txt events.bin
+ *  Dependencies: Percolation.java
+ *
+ *  Streams site-open events from a binary event log into a Percolation.
+ *
+ *  The log is a little-endian int n (the grid size) followed by one int per
+ *  event, the row major site index (row - 1) * n + col - 1. The file is
+ *  memory-mapped read-only in windows and each window is handed to
+ *  Percolation.openAll as an IntBuffer view, so replaying a log of any size
+ *  does not read it onto the heap or create an object per event.
+ *
+ *  With one argument, replays the log and prints the number of events and
+ *  the event that made the system percolate. With two arguments, converts
+ *  a text input file in the PercolationVisualizer format (n followed by
+ *  row col pairs) into a binary log.
+ *
+ ******************************************************************************/
+
+import edu.princeton.cs.algs4.In;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+public class SiteEventReader implements AutoCloseable {
+    private static final int HEADER_BYTES = 4;
+    private static final int WINDOW_EVENTS = 1 << 26; // events mapped at a time (256 MB)
+
+    private final FileChannel channel;
+    private final int n;
+    private final long events;
+
+    public SiteEventReader(String filename) {
+        try {
+            this.channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ);
+            long bytes = this.channel.size();
+            if (bytes < HEADER_BYTES || (bytes - HEADER_BYTES) % 4 != 0)
+                throw new IllegalArgumentException("not a site event log: " + filename);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining()) this.channel.read(header, header.position());
+            this.n = header.getInt(0);
+            this.events = (bytes - HEADER_BYTES) / 4;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // grid size n of the logged system
+    public int n() {
+        return this.n;
+    }
+
+    // number of events in the log
+    public long size() {
+        return this.events;
+    }
+
+    /**
+     * Opens every logged site in perc, in order.
+     *
+     * Returns the index in the log of the event that made perc percolate, or -1 if it did not start percolating.
+     */
+    public long replay(Percolation perc) {
+        if (perc == null) throw new IllegalArgumentException();
+        long percolatedAt = -1;
+        try {
+            for (long first = 0; first < this.events; first += WINDOW_EVENTS) {
+                int count = (int) Math.min(WINDOW_EVENTS, this.events - first);
+                MappedByteBuffer window = this.channel.map(FileChannel.MapMode.READ_ONLY,
+                        HEADER_BYTES + first * 4, (long) count * 4);
+                IntBuffer sites = window.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+                int offset = perc.openAll(sites);
+                if (percolatedAt == -1 && offset >= 0) percolatedAt = first + offset;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return percolatedAt;
+    }
+
+    @Override
+    public void close() {
+        try {
+            this.channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // writes the events of a text input file (n followed by row col pairs) as a binary log
+    private static void convert(String input, String output) throws IOException {
+        In in = new In(input);
+        int n = in.readInt();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+        try (FileChannel out = FileChannel.open(Paths.get(output), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            buffer.putInt(n);
+            while (!in.isEmpty()) {
+                int row = in.readInt();
+                int col = in.readInt();
+                if (!buffer.hasRemaining()) {
+                    buffer.flip();
+                    while (buffer.hasRemaining()) out.write(buffer);
+                    buffer.clear();
+                }
+                buffer.putInt((row - 1) * n + col - 1);
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) out.write(buffer);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length > 1) {
+            convert(args[0], args[1]);
+            return;
+        }
+        try (SiteEventReader reader = new SiteEventReader(args[0])) {
+            Percolation perc = new Percolation(reader.n());
+            long percolatedAt = reader.replay(perc);
+            System.out.println(reader.size() + " events, " + perc.numberOfOpenSites() + " open sites");
+            if (percolatedAt >= 0) System.out.println("percolates at event " + percolatedAt);
+            else System.out.println("does not percolate");
+        }
+    }
+}
@@ -0,0 +1,104 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Checkpoint file of a blocked PercolationStats run.
+ *
+ * It records which experiment was run (a description, the seed, the number of trials and the block size), how many
+ * blocks are done, the RunningStats of their thresholds and the non-empty bins of their ThresholdHistogram, if
+ * the run keeps one.
+ * The RNG state needs no saving: block i uses the i-th stream split off the seed, so a resumed run recreates it
+ * by splitting the done blocks off again. A checkpoint is written to a temp file which is synced and then
+ * renamed over the previous one, so a run killed at any point leaves either the old or the new checkpoint.
+ */
+class StatsCheckpoint {
+    private static final int MAGIC = 0x50534b31; // "PSK1"
+
+    private final Path path;
+    private final String experiment;
+    private final long seed;
+    private final int trials;
+    private final int block;
+
+    StatsCheckpoint(String filename, String experiment, long seed, int trials, int block) {
+        this.path = Paths.get(filename);
+        this.experiment = experiment;
+        this.seed = seed;
+        this.trials = trials;
+        this.block = block;
+    }
+
+    /**
+     * Saves the state after doneBlocks blocks; histogram may be null.
+     */
+    void write(int doneBlocks, RunningStats stats, ThresholdHistogram histogram) {
+        Path temp = this.path.resolveSibling(this.path.getFileName() + ".tmp");
+        try (FileOutputStream file = new FileOutputStream(temp.toFile());
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file))) {
+            out.writeInt(MAGIC);
+            out.writeUTF(this.experiment);
+            out.writeLong(this.seed);
+            out.writeInt(this.trials);
+            out.writeInt(this.block);
+            out.writeInt(doneBlocks);
+            out.writeLong(stats.count());
+            out.writeDouble(stats.mean());
+            out.writeDouble(stats.sumOfSquares());
+            for (int i = 0; histogram != null && i < histogram.bins(); i++) {
+                int count = histogram.count(i);
+                if (count == 0) continue;
+                out.writeInt(i);
+                out.writeInt(count);
+            }
+            out.writeInt(-1);
+            out.flush();
+            file.getFD().sync();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        try {
+            Files.move(temp, this.path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Restores the saved state into stats and histogram (unless it is null), which must be empty, and returns
+     * the number of blocks done, or 0 if there is no checkpoint yet.
+     * Throws IllegalArgumentException if the checkpoint belongs to a different run.
+     */
+    int read(RunningStats stats, ThresholdHistogram histogram) {
+        if (!Files.exists(this.path)) return 0;
+        try (InputStream file = Files.newInputStream(this.path);
+             DataInputStream in = new DataInputStream(new BufferedInputStream(file))) {
+            if (in.readInt() != MAGIC) throw new IllegalArgumentException(this.path + " is not a checkpoint");
+            String experiment = in.readUTF();
+            long seed = in.readLong();
+            int trials = in.readInt();
+            int block = in.readInt();
+            if (!experiment.equals(this.experiment) || seed != this.seed || trials != this.trials || block != this.block)
+                throw new IllegalArgumentException(this.path + " is a checkpoint of " + experiment + ", seed " + seed
+                        + ", " + trials + " trials in blocks of " + block);
+            int doneBlocks = in.readInt();
+            stats.merge(new RunningStats(in.readLong(), in.readDouble(), in.readDouble()));
+            for (int i = in.readInt(); i >= 0; i = in.readInt()) {
+                int count = in.readInt();
+                if (histogram != null) histogram.setCount(i, count);
+            }
+            return doneBlocks;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
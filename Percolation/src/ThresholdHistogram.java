@@ -0,0 +1,52 @@
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Fixed-size histogram of thresholds in [0, 1] for quantile estimates.
+ *
+ * It has 2^16 bins (256 KB), so quantiles are exact to within 2^-17. Counts are integers, so adding the same
+ * values from any number of threads in any order gives the same histogram.
+ */
+public class ThresholdHistogram {
+    private static final int BINS = 1 << 16;
+
+    private final AtomicIntegerArray counts = new AtomicIntegerArray(BINS);
+
+    // adds a threshold between 0 and 1
+    public void add(double threshold) {
+        if (!(threshold >= 0.0 && threshold <= 1.0)) throw new IllegalArgumentException(String.valueOf(threshold));
+        this.counts.incrementAndGet(Math.min((int) (threshold * BINS), BINS - 1));
+    }
+
+    int bins() {
+        return BINS;
+    }
+
+    // count of bin i, for saving the histogram
+    int count(int i) {
+        return this.counts.get(i);
+    }
+
+    // sets the count of bin i, for restoring the histogram
+    void setCount(int i, int count) {
+        this.counts.set(i, count);
+    }
+
+    /**
+     * Returns the q-quantile of the thresholds added so far, as the midpoint of the bin that holds it,
+     * or NaN if none were added.
+     */
+    public double quantile(double q) {
+        if (!(q >= 0.0 && q <= 1.0)) throw new IllegalArgumentException(String.valueOf(q));
+        long total = 0;
+        for (int i = 0; i < BINS; i++) total += this.counts.get(i);
+        if (total == 0) return Double.NaN;
+
+        long rank = Math.max(1, (long) Math.ceil(q * total));
+        long seen = 0;
+        for (int i = 0; i < BINS; i++) {
+            seen += this.counts.get(i);
+            if (seen >= rank) return (i + 0.5) / BINS;
+        }
+        return 1.0;
+    }
+}